@@ -0,0 +1,81 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.benchmarks;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.CompressedChr;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileMemory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CompressionBenchmark
+ * Compressing and unpacking a full VRAM's worth of 4bpp CHR data.  'megabytes' in the results is throughput in
+ * MB/s of uncompressed data; the compression ratio for each case is printed during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({"RLE", "LZ2"})
+    public CompressedChr.Format format;
+
+    // random pixels are the worst case; banded tiles are closer to real art
+    @Param({"random", "banded"})
+    public String content;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    private byte[] chr;
+    private int length;
+    private byte[] packed;
+
+    @Setup
+    public void setup() {
+        int rows = new EditingData(4).maxTileRows();
+        EditingData data = content.equals("random") ? SyntheticSheets.create(4, rows, 1) : SyntheticSheets.createBanded(4, rows, 1);
+        TileMemory tiles = data.getTileMemory();
+        chr = tiles.getData();
+        length = tiles.usedBytes();
+        packed = CompressedChr.compress(chr, length, format);
+        System.out.println(String.format("%n%s %s: %d bytes -> %d (%.1f%%)", format, content, length, packed.length, 100.0 * packed.length / length));
+    }
+
+    @Benchmark
+    public byte[] compress(Throughput t) {
+        t.megabytes += length / 1e6;
+        return CompressedChr.compress(chr, length, format);
+    }
+
+    @Benchmark
+    public byte[] decompress(Throughput t) {
+        t.megabytes += length / 1e6;
+        return CompressedChr.decompress(packed, format);
+    }
+}
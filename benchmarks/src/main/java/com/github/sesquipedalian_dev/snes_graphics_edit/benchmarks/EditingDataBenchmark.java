@@ -0,0 +1,81 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.benchmarks;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EditingDataBenchmark
+ * Whole file reads and writes over sheets of increasing size, as .inc text and as binary projects.  Rows are
+ * capped at what fits in VRAM for the bit depth, so the 8bpp 'full' case is smaller than the others.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditingDataBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int bitDepth;
+
+    // -1 = as many rows as VRAM holds
+    @Param({"1", "16", "-1"})
+    public int tileRows;
+
+    // file extension, which picks the format
+    @Param({".inc", ".sgfx"})
+    public String extension;
+
+    private EditingData data;
+    private Path dir;
+    private String readFile;
+    private String writeFile;
+
+    @Setup
+    public void setup() throws IOException {
+        int rows = (tileRows < 0) ? new EditingData(bitDepth).maxTileRows() : tileRows;
+        data = SyntheticSheets.create(bitDepth, rows, 1);
+
+        dir = Files.createTempDirectory("editing-data-bench");
+        readFile = dir.resolve("ReadSheet" + extension).toString();
+        writeFile = dir.resolve("WriteSheet" + extension).toString();
+        data.toFile(readFile);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve("ReadSheet" + extension));
+        Files.deleteIfExists(dir.resolve("WriteSheet" + extension));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public EditingData fromFile() throws IOException {
+        return EditingData.fromFile(readFile);
+    }
+
+    @Benchmark
+    public void toFile() throws IOException {
+        data.toFile(writeFile);
+    }
+}
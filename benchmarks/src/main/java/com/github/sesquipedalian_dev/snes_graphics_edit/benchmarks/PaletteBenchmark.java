@@ -0,0 +1,51 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.benchmarks;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.Palette;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PaletteBenchmark
+ * Parsing a palette from its '.db' text form.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaletteBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int bitDepth;
+
+    private String line;
+
+    @Setup
+    public void setup() {
+        line = SyntheticSheets.paletteLine(SyntheticSheets.randomPalette(bitDepth, new Random(1)));
+    }
+
+    @Benchmark
+    public Palette fromString() throws IOException {
+        return Palette.fromString(new Scanner(line), bitDepth);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.benchmarks;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.PlanarCodec;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileCHR;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PlanarCodecBenchmark
+ * Converting a full VRAM's worth of tiles between planar and chunky pixels, one thread and across the
+ * ForkJoin pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlanarCodecBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int bitDepth;
+
+    private int tiles;
+    private byte[] planar;
+    private byte[] chunky;
+
+    @Setup
+    public void setup() {
+        tiles = (64 * 1024) / TileCHR.bytesPerTile(bitDepth);
+        planar = new byte[tiles * TileCHR.bytesPerTile(bitDepth)];
+        new Random(1).nextBytes(planar);
+        chunky = new byte[tiles * PlanarCodec.PIXELS_PER_TILE];
+        PlanarCodec.decodeBank(planar, 0, tiles, bitDepth, chunky, 0);
+    }
+
+    @Benchmark
+    public byte[] decodeBank() {
+        PlanarCodec.decodeBank(planar, 0, tiles, bitDepth, chunky, 0);
+        return chunky;
+    }
+
+    @Benchmark
+    public byte[] decodeBankParallel() {
+        PlanarCodec.decodeBankParallel(planar, 0, tiles, bitDepth, chunky, 0);
+        return chunky;
+    }
+
+    @Benchmark
+    public byte[] encodeBank() {
+        PlanarCodec.encodeBank(chunky, 0, tiles, bitDepth, planar, 0);
+        return planar;
+    }
+
+    @Benchmark
+    public byte[] encodeBankParallel() {
+        PlanarCodec.encodeBankParallel(chunky, 0, tiles, bitDepth, planar, 0);
+        return planar;
+    }
+}
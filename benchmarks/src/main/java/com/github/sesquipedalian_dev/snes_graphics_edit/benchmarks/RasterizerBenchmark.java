@@ -0,0 +1,142 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.benchmarks;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.Palette;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileCHR;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileMemory;
+import com.github.sesquipedalian_dev.snes_graphics_edit.ui.PaletteCanvasController;
+import com.github.sesquipedalian_dev.snes_graphics_edit.ui.TileImageCache;
+import com.github.sesquipedalian_dev.snes_graphics_edit.ui.TileSheetRasterizer;
+import com.github.sesquipedalian_dev.snes_graphics_edit.util.Util;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RasterizerBenchmark
+ * The tile mem canvas pixel loop, drawing a full sheet into an off-screen ARGB buffer the size of the canvas.  Also
+ * the tile character canvas putting its view together out of TileImageCache blocks, and the palette canvas
+ * working out its colors.  The GraphicsContext calls both canvases finish with need a running FX toolkit, so
+ * they're left out; these are the parts that are ours.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RasterizerBenchmark {
+    // same size as the tile mem canvas in the window
+    private static final int WIDTH = 245;
+    private static final int HEIGHT = 260;
+
+    @Param({"1", "2", "4", "8"})
+    public int bitDepth;
+
+    private EditingData data;
+    private TileSheetRasterizer rasterizer;
+    private int[] lut;
+    private int[] pixels;
+    private double pixelSize;
+
+    // the tile character canvas at its widest zoom, 8 tiles across at 4 pixels each, the most blocks it copies
+    private static final int CHR_CANVAS_SIZE = 260;
+    private static final int CHR_TILES_ACROSS = 8;
+    private int chrTileSize;
+    private int chrSize;
+    private int[] chrPixels;
+    private int editedPixel;
+
+    private Color[] paletteColors;
+
+    @Setup
+    public void setup() {
+        data = SyntheticSheets.create(bitDepth, new EditingData(bitDepth).maxTileRows(), 1);
+        rasterizer = new TileSheetRasterizer(EditingData.TILES_PER_ROW);
+        lut = data.getPalette(0).getArgbTable();
+        pixels = new int[WIDTH * HEIGHT];
+        pixelSize = (double) WIDTH / (EditingData.TILES_PER_ROW * 8);
+
+        chrTileSize = (CHR_CANVAS_SIZE / (CHR_TILES_ACROSS * TileCHR.TILE_DIM)) * TileCHR.TILE_DIM;
+        chrSize = CHR_TILES_ACROSS * chrTileSize;
+        chrPixels = new int[chrSize * chrSize];
+        editedPixel = 0;
+
+        paletteColors = new Color[PaletteCanvasController.ROWS_OF_COLORS * PaletteCanvasController.COLORS_PER_ROW];
+    }
+
+    // same as TileCharacterCanvasController.draw: each tile's cached, scaled up pixels copied into place
+    private int[] assembleCharacterView() {
+        TileMemory tiles = data.getTileMemory();
+        Palette palette = data.getPalette(0);
+        TileImageCache cache = TileImageCache.getInstance();
+        int scale = chrTileSize / TileCHR.TILE_DIM;
+        for(int tileX = 0; tileX < CHR_TILES_ACROSS; ++tileX) {
+            for(int tileY = 0; tileY < CHR_TILES_ACROSS; ++tileY) {
+                int tile = (tileX * EditingData.TILES_PER_ROW) + tileY;
+                int[] image = cache.get(tiles, tile, palette, 0, scale);
+                int start = (tileX * chrTileSize * chrSize) + (tileY * chrTileSize);
+                for(int i = 0; i < chrTileSize; ++i) {
+                    System.arraycopy(image, i * chrTileSize, chrPixels, start + (i * chrSize), chrTileSize);
+                }
+            }
+        }
+        return chrPixels;
+    }
+
+    @Benchmark
+    public int[] rasterizeTop() {
+        rasterizer.rasterize(data.getTileMemory(), lut, pixelSize, 0, pixels, WIDTH, HEIGHT);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] rasterizeScrolled() {
+        rasterizer.rasterize(data.getTileMemory(), lut, pixelSize, 1000, pixels, WIDTH, HEIGHT);
+        return pixels;
+    }
+
+    // redrawing with nothing changed: every block comes out of the cache
+    @Benchmark
+    public int[] characterCanvasCached() {
+        return assembleCharacterView();
+    }
+
+    // redrawing after painting a pixel in the first tile, so one block has to be rendered again
+    @Benchmark
+    public int[] characterCanvasAfterEdit() {
+        editedPixel = (editedPixel + 1) % (1 << bitDepth);
+        data.getTileMemory().setPixel(0, editedPixel);
+        return assembleCharacterView();
+    }
+
+    // same walk over the palettes as PaletteCanvasController.drawPalette
+    @Benchmark
+    public Color[] paletteCanvasColors() {
+        int colorsPerPalette = 1 << bitDepth;
+        for(int colorIndex = 0; colorIndex < paletteColors.length; ++colorIndex) {
+            int paletteIndex = colorIndex / colorsPerPalette;
+            if(paletteIndex >= data.currentPalettes()) {
+                break;
+            }
+            paletteColors[colorIndex] = Util.snesToJavaColor(data.getPalette(paletteIndex).getSnesColor(colorIndex % colorsPerPalette));
+        }
+        return paletteColors;
+    }
+}
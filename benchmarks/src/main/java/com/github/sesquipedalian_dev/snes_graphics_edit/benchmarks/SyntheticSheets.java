@@ -0,0 +1,110 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.benchmarks;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.Palette;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.SnesColor;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileCHR;
+
+import java.util.Random;
+
+/**
+ * SyntheticSheets
+ * Random but repeatable editing data for the benchmarks to chew on.
+ */
+public class SyntheticSheets {
+    public static EditingData create(int bitDepth, int tileRows, long seed) {
+        Random r = new Random(seed);
+        EditingData ed = new EditingData(bitDepth);
+
+        for(int i = 0; i < ed.maxPalettes(); ++i) {
+            ed.addPalette(randomPalette(bitDepth, r));
+        }
+
+        for(int x = 0; x < tileRows; ++x) {
+            ed.addTileRow();
+            for(int y = 0; y < EditingData.TILES_PER_ROW; ++y) {
+                ed.setTile(x, y, randomTile(bitDepth, r));
+            }
+        }
+        return ed;
+    }
+
+    // like create, but with tiles that look more like drawn art: a background color with a few flat bands across
+    // it, so there's something for compression to find
+    public static EditingData createBanded(int bitDepth, int tileRows, long seed) {
+        Random r = new Random(seed);
+        EditingData ed = new EditingData(bitDepth);
+
+        for(int i = 0; i < ed.maxPalettes(); ++i) {
+            ed.addPalette(randomPalette(bitDepth, r));
+        }
+
+        for(int x = 0; x < tileRows; ++x) {
+            ed.addTileRow();
+            for(int y = 0; y < EditingData.TILES_PER_ROW; ++y) {
+                ed.setTile(x, y, bandedTile(bitDepth, r));
+            }
+        }
+        return ed;
+    }
+
+    public static TileCHR bandedTile(int bitDepth, Random r) {
+        TileCHR t = new TileCHR(bitDepth);
+        int color = 0;
+        for(int x = 0; x < TileCHR.TILE_DIM; ++x) {
+            if(r.nextInt(4) == 0) {
+                color = r.nextInt(1 << bitDepth);
+            }
+            for(int y = 0; y < TileCHR.TILE_DIM; ++y) {
+                t.selectColor(x, y, color);
+            }
+        }
+        return t;
+    }
+
+    public static TileCHR randomTile(int bitDepth, Random r) {
+        TileCHR t = new TileCHR(bitDepth);
+        for(int x = 0; x < TileCHR.TILE_DIM; ++x) {
+            for(int y = 0; y < TileCHR.TILE_DIM; ++y) {
+                t.selectColor(x, y, r.nextInt(1 << bitDepth));
+            }
+        }
+        return t;
+    }
+
+    public static Palette randomPalette(int bitDepth, Random r) {
+        Palette p = new Palette(bitDepth);
+        for(int c = 0; c < p.colorsSize(); ++c) {
+            p.selectColor(c, SnesColor.pack(r.nextInt(32), r.nextInt(32), r.nextInt(32)));
+        }
+        return p;
+    }
+
+    // a single '.db' line holding all of the palette's colors, the way Palette.fromString wants it
+    public static String paletteLine(Palette p) {
+        StringBuilder sb = new StringBuilder(".db ");
+        for(int c = 0; c < p.colorsSize(); ++c) {
+            int color = p.getSnesColor(c);
+            if(c != 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format("$%02X, $%02X", color & 0xFF, (color >> 8) & 0xFF));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.benchmarks;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileCHR;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TileCHRBenchmark
+ * Converting single tiles to and from their '.db' text form.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TileCHRBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int bitDepth;
+
+    private TileCHR tile;
+    private String line;
+    private PrintStream sink;
+
+    @Setup
+    public void setup() {
+        tile = SyntheticSheets.randomTile(bitDepth, new Random(1));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        tile.serializeToStream(out);
+        out.flush();
+        line = bytes.toString().trim();
+
+        sink = new PrintStream(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void serializeToStream() {
+        tile.serializeToStream(sink);
+    }
+
+    @Benchmark
+    public TileCHR fromString() throws IOException {
+        return TileCHR.fromString(new Scanner(line), bitDepth);
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.IncReader;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.IncWriter;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileMemory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * BatchConverter
+ * Headless command line mode: loads every .inc file it's pointed at, checks it survives a write / read round
+ * trip unchanged, and optionally writes it back out (as .inc, and .chr / .pal for .incbin) to another directory.
+ * Files are handled in parallel across all cores.  Exits non-zero if anything failed.
+ *
+ * Usage: BatchConverter [-o OUTPUT_DIR] [-bin] FILE_OR_DIR...
+ * Run this class directly rather than through Main -b when there's no display; JavaFX insists on starting
+ * its toolkit for any main class that's an Application.
+ */
+public class BatchConverter {
+    private Path outputDir = null;
+    private boolean writeBinary = false;
+    private List<Path> inputs = new ArrayList<>();
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    // returns the process exit code
+    public static int run(String[] args) {
+        BatchConverter converter = new BatchConverter();
+        try {
+            converter.parseArgs(args);
+        } catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: BatchConverter [-o OUTPUT_DIR] [-bin] FILE_OR_DIR...");
+            return 2;
+        }
+
+        try {
+            return converter.convertAll();
+        } catch(IOException | InterruptedException e) {
+            System.err.println("batch conversion failed: " + e);
+            return 1;
+        }
+    }
+
+    private void parseArgs(String[] args) {
+        for(int i = 0; i < args.length; ++i) {
+            switch(args[i]) {
+                case "-o":
+                    if(i + 1 == args.length) {
+                        throw new IllegalArgumentException("-o needs a directory");
+                    }
+                    outputDir = Paths.get(args[++i]);
+                    break;
+                case "-bin":
+                    writeBinary = true;
+                    break;
+                default:
+                    inputs.add(Paths.get(args[i]));
+                    break;
+            }
+        }
+
+        if(inputs.isEmpty()) {
+            throw new IllegalArgumentException("no input files");
+        }
+        if(writeBinary && outputDir == null) {
+            throw new IllegalArgumentException("-bin needs -o");
+        }
+    }
+
+    // pair up each .inc with the root it was found under, so outputs can mirror the directory layout
+    private static class Job {
+        final Path root;
+        final Path file;
+
+        Job(Path root, Path file) {
+            this.root = root.toAbsolutePath().normalize();
+            this.file = file.toAbsolutePath().normalize();
+        }
+    }
+
+    private int convertAll() throws IOException, InterruptedException {
+        List<Job> jobs = new ArrayList<>();
+        for(Path input : inputs) {
+            if(Files.isDirectory(input)) {
+                try(Stream<Path> found = Files.walk(input)) {
+                    for(Path p : found.filter(p -> p.toString().endsWith(".inc")).sorted().collect(Collectors.toList())) {
+                        jobs.add(new Job(input, p));
+                    }
+                }
+            } else {
+                jobs.add(new Job(input.toAbsolutePath().getParent(), input));
+            }
+        }
+
+        long start = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        int failures = 0;
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for(Job job : jobs) {
+                results.add(pool.submit(() -> convert(job)));
+            }
+
+            // report in the order the files were given
+            for(int i = 0; i < jobs.size(); ++i) {
+                try {
+                    System.out.println(results.get(i).get());
+                } catch(ExecutionException e) {
+                    failures++;
+                    Throwable cause = e.getCause();
+                    System.out.println(String.format("FAIL %s: %s", jobs.get(i).file, cause.getMessage() != null ? cause.getMessage() : cause.toString()));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        System.out.println(String.format("%d files, %d failed, %.1f ms total on %d threads",
+                jobs.size(), failures, (System.nanoTime() - start) / 1e6, threads));
+        return (failures == 0) ? 0 : 1;
+    }
+
+    private String convert(Job job) throws IOException {
+        long start = System.nanoTime();
+
+        // detached, so files being converted at the same time don't fight over which one is current
+        EditingData ed = EditingData.readFile(job.file.toString());
+        validateRoundTrip(ed, job.file);
+
+        if(outputDir != null) {
+            Path out = outputDir.resolve(job.root.relativize(job.file));
+            Files.createDirectories(out.toAbsolutePath().getParent());
+            // nothing's going to save over these again, so there's no point keeping their layouts
+            IncWriter.writeFile(ed, out, false);
+
+            if(writeBinary) {
+                String base = out.toString().replaceAll("\\.inc$", "");
+                ed.toBinaryFiles(base + ".chr", base + ".pal");
+            }
+        }
+
+        return String.format("OK   %s (%d bpp, %d tile rows, %d palettes) %.1f ms",
+                job.file, ed.getBitDepth(), ed.getTileRows(), ed.currentPalettes(), (System.nanoTime() - start) / 1e6);
+    }
+
+    // write the data back out to memory, read that in again, and make sure nothing changed
+    private static void validateRoundTrip(EditingData ed, Path file) throws IOException {
+        String shortName = file.getFileName().toString().replaceAll("\\..*$", "");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        IncWriter w = new IncWriter(Channels.newChannel(bytes));
+        w.writeEditingData(ed, shortName);
+        w.flush();
+
+        EditingData again = new IncReader(new ByteArrayInputStream(bytes.toByteArray()), file.toString()).read(shortName);
+        if(again.getBitDepth() != ed.getBitDepth() || again.getTileRows() != ed.getTileRows() || again.currentPalettes() != ed.currentPalettes()) {
+            throw new IOException("round trip changed the shape of the data");
+        }
+
+        TileMemory a = ed.getTileMemory();
+        TileMemory b = again.getTileMemory();
+        for(int i = 0; i < a.usedBytes(); ++i) {
+            if(a.getData()[i] != b.getData()[i]) {
+                throw new IOException("round trip changed tile data at byte " + i);
+            }
+        }
+
+        for(int p = 0; p < ed.currentPalettes(); ++p) {
+            for(int c = 0; c < ed.getPalette(p).colorsSize(); ++c) {
+                if(ed.getPalette(p).getSnesColor(c) != again.getPalette(p).getSnesColor(c)) {
+                    throw new IOException("round trip changed palette " + p + " color " + c);
+                }
+            }
+        }
+    }
+}
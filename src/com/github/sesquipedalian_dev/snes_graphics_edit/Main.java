@@ -3,6 +3,7 @@ package com.github.sesquipedalian_dev.snes_graphics_edit;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.Palette;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileCHR;
+import com.github.sesquipedalian_dev.snes_graphics_edit.util.Util;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -36,6 +37,8 @@ public class Main extends Application {
     public static void main(String[] args) throws Exception {
         if((args.length > 0) && args[0].equals("-t")) {
             runTests();
+        } else if((args.length > 0) && args[0].equals("-b")) {
+            System.exit(BatchConverter.run(java.util.Arrays.copyOfRange(args, 1, args.length)));
         } else {
             launch(args);
         }
@@ -51,10 +54,10 @@ public class Main extends Application {
         tile.serializeToStream(System.out);
 
         Palette p = new Palette(2);
-        p.selectColor(0, Color.BLACK);
-        p.selectColor(1, new Color(0, 1, 1, 1));
-        p.selectColor(2, new Color(1, 0, 0, 1));
-        p.selectColor(3, new Color(1, 1, 0, 1));
+        p.selectColor(0, Util.javaToSnesColor(Color.BLACK));
+        p.selectColor(1, Util.javaToSnesColor(new Color(0, 1, 1, 1)));
+        p.selectColor(2, Util.javaToSnesColor(new Color(1, 0, 0, 1)));
+        p.selectColor(3, Util.javaToSnesColor(new Color(1, 1, 0, 1)));
 
         p.serializeToStream(System.out);
 
@@ -96,7 +99,7 @@ public class Main extends Application {
         for(int i = 0; i < ed.currentPalettes(); ++i) {
             Palette p4 = ed.getPalette(i);
             for(int c = 0; c < p4.colorsSize(); ++c) {
-                System.out.println(String.format("Palette %d Color %d = %s", i, c, p4.getColor(c)));
+                System.out.println(String.format("Palette %d Color %d = %s", i, c, Util.snesToJavaColor(p4.getSnesColor(c))));
             }
         }
     }
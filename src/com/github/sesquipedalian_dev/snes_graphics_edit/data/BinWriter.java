@@ -0,0 +1,66 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * BinWriter
+ * Writes editing data as raw binary for WLA's .incbin: the planar CHR bytes exactly as they'd sit in VRAM, and
+ * the palettes as the little endian BGR555 words they'd be in CGRAM, and tilemaps as the little endian words
+ * they'd be in VRAM.  Same bytes as the .db lines in an .inc.
+ */
+public class BinWriter {
+    // tile memory is already in VRAM format, so it goes straight from its backing array to the file
+    public static void writeChr(EditingData ed, Path path) throws IOException {
+        TileMemory tiles = ed.getTileMemory();
+        AtomicFile.write(path, channel -> {
+            writeFully(channel, ByteBuffer.wrap(tiles.getData(), 0, tiles.usedBytes()));
+        });
+    }
+
+    public static void writePal(EditingData ed, Path path) throws IOException {
+        int colors = 0;
+        for(int i = 0; i < ed.currentPalettes(); ++i) {
+            colors += ed.getPalette(i).colorsSize();
+        }
+
+        ByteBuffer words = ByteBuffer.allocate(colors * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < ed.currentPalettes(); ++i) {
+            Palette p = ed.getPalette(i);
+            for(int c = 0; c < p.colorsSize(); ++c) {
+                words.putShort((short) p.getSnesColor(c));
+            }
+        }
+        words.flip();
+
+        AtomicFile.write(path, channel -> writeFully(channel, words));
+    }
+
+    public static void writeTilemap(Tilemap map, Path path) throws IOException {
+        AtomicFile.write(path, channel -> writeFully(channel, ByteBuffer.wrap(map.toBytes())));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer b) throws IOException {
+        while(b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * BitDepthConverter
+ * Re-encodes editing data at another bit depth, keeping the artwork.  Palettes are regrouped the way CGRAM would
+ * see them: all the colors laid end to end, then cut up into palettes of the new size (as many as fit).
+ *
+ * Each tile is converted against one palette - the palette it's drawn with in the tilemap, if it's on it, or a
+ * default palette otherwise.  Going up a bit depth, a tile's palette lands inside one of the new bigger ones, so
+ * its indices just move over to where those colors went and it looks exactly the same.  Either way color 0 stays
+ * color 0, since it's transparent whatever the palette, and no other color is ever turned into it.  Going down, the tile's
+ * palette is spread over several smaller ones; the tile gets whichever of those draws it with the least error,
+ * and each pixel the nearest color in it.  Tilemap entries are pointed at the tile's new palette where that fits.
+ *
+ * Tile rows are independent of each other, so they're converted across the common ForkJoin pool.  Rows that don't
+ * fit in VRAM at the new bit depth are dropped.
+ */
+public class BitDepthConverter {
+    // rows of tiles per ForkJoin task, at the least
+    private static final int PARALLEL_THRESHOLD = 8;
+
+    private final int oldBitDepth;
+    private final int newBitDepth;
+    private final int oldSize;
+    private final int newSize;
+    private final int newPalettes;
+
+    // going down: per old palette, which new palettes its tiles may use, and for each of those where every old
+    // index ends up and with how much error
+    private int[][] candidates;
+    private byte[][][] nearestIndex;
+    private int[][][] nearestError;
+
+    private BitDepthConverter(int oldBitDepth, int newBitDepth, int newPalettes) {
+        this.oldBitDepth = oldBitDepth;
+        this.newBitDepth = newBitDepth;
+        this.oldSize = 1 << oldBitDepth;
+        this.newSize = 1 << newBitDepth;
+        this.newPalettes = newPalettes;
+    }
+
+    // a copy of source at the new bit depth, not made current.  source isn't touched; if it could be edited on
+    // another thread meanwhile, pass a snapshot.  defaultPalette is the one used for tiles not on the tilemap
+    public static EditingData convert(EditingData source, int newBitDepth, int defaultPalette) {
+        EditingData converted = EditingData.detached(newBitDepth);
+        converted.setFilename(source.getFilename());
+        int oldBitDepth = source.getBitDepth();
+
+        // regroup the palettes
+        short[] cgram = new short[source.currentPalettes() << oldBitDepth];
+        for(int p = 0; p < source.currentPalettes(); ++p) {
+            for(int i = 0; i < (1 << oldBitDepth); ++i) {
+                cgram[(p << oldBitDepth) + i] = (short) source.getPalette(p).getSnesColor(i);
+            }
+        }
+        int palettes = Math.min(converted.maxPalettes(), (cgram.length + (1 << newBitDepth) - 1) >> newBitDepth);
+        if(source.currentPalettes() == source.maxPalettes()) {
+            // a full set stays a full set
+            palettes = converted.maxPalettes();
+        }
+        for(int p = 0; p < palettes; ++p) {
+            Palette palette = new Palette(newBitDepth);
+            for(int i = 0; i < palette.colorsSize(); ++i) {
+                int slot = (p << newBitDepth) + i;
+                if(slot < cgram.length) {
+                    palette.colors[i] = cgram[slot];
+                }
+            }
+            converted.addPalette(palette);
+        }
+
+        TileMemory from = source.getTileMemory();
+        TileMemory to = converted.getTileMemory();
+        int rows = Math.min(from.getTileRows(), to.maxTiles() / to.getTilesPerRow());
+        int tileCount = rows * from.getTilesPerRow();
+
+        // which palette each tile was drawn with
+        Tilemap map = source.getTilemap();
+        int[] tilePalette = Tilemap.palettesForTiles(map, tileCount, defaultPalette);
+
+        BitDepthConverter converter = new BitDepthConverter(oldBitDepth, newBitDepth, palettes);
+        if(newBitDepth < oldBitDepth) {
+            converter.buildNearestTables(cgram, converted);
+        }
+
+        byte[] pixels = new byte[tileCount * PlanarCodec.PIXELS_PER_TILE];
+        PlanarCodec.decodeBankParallel(from.getData(), 0, tileCount, oldBitDepth, pixels, 0);
+        ForkJoinPool.commonPool().invoke(converter.new RowTask(pixels, tilePalette, from.getTilesPerRow(), 0, rows));
+        to.appendTiles(pixels, tileCount);
+
+        if(map != null) {
+            Tilemap newMap = Tilemap.fromBytes(map.toBytes(), 0, map.getSize() * map.getSize() * 2);
+            newMap.repaletteTiles(tilePalette);
+            converted.setTilemap(newMap);
+        }
+        return converted;
+    }
+
+    private void buildNearestTables(short[] cgram, EditingData converted) {
+        int oldPalettes = cgram.length / oldSize;
+        candidates = new int[oldPalettes][];
+        nearestIndex = new byte[oldPalettes][][];
+        nearestError = new int[oldPalettes][][];
+
+        for(int p = 0; p < oldPalettes; ++p) {
+            // the new palettes cut out of this one, if they survived; otherwise any of them
+            int first = (p * oldSize) / newSize;
+            int count = Math.min(oldSize / newSize, newPalettes - first);
+            if(count <= 0) {
+                first = 0;
+                count = newPalettes;
+            }
+            candidates[p] = new int[count];
+            nearestIndex[p] = new byte[count][oldSize];
+            nearestError[p] = new int[count][oldSize];
+
+            for(int c = 0; c < count; ++c) {
+                int q = first + c;
+                candidates[p][c] = q;
+                Palette target = converted.getPalette(q);
+                for(int i = 1; i < oldSize; ++i) {
+                    int color = cgram[(p * oldSize) + i];
+                    // ties go to the index the pixel would have had anyway, so blank palettes keep the drawing
+                    int bestIndex = opaqueIndex(i);
+                    int bestError = colorError(color, target.getSnesColor(bestIndex));
+                    for(int j = 1; j < newSize && bestError > 0; ++j) {
+                        int error = colorError(color, target.getSnesColor(j));
+                        if(error < bestError) {
+                            bestError = error;
+                            bestIndex = j;
+                        }
+                    }
+                    nearestIndex[p][c][i] = (byte) bestIndex;
+                    nearestError[p][c][i] = bestError;
+                }
+            }
+        }
+    }
+
+    // where an opaque old index goes when there's nothing better to go by: where its color lands when CGRAM is cut
+    // into the smaller palettes, unless that's a color 0, in which case the first opaque color
+    private int opaqueIndex(int i) {
+        int index = i % newSize;
+        return (index != 0) ? index : 1;
+    }
+
+    private static int colorError(int a, int b) {
+        int dr = SnesColor.red(a) - SnesColor.red(b);
+        int dg = SnesColor.green(a) - SnesColor.green(b);
+        int db = SnesColor.blue(a) - SnesColor.blue(b);
+        return (dr * dr) + (dg * dg) + (db * db);
+    }
+
+    // convert the chunky pixels of one tile in place, returning the palette it ends up drawn with
+    private int convertTile(byte[] pixels, int offset, int oldPalette, int[] histogram) {
+        if(newBitDepth >= oldBitDepth) {
+            // the old palette sits inside a new one; shift the indices over to match
+            int slot = oldPalette * oldSize;
+            int shift = slot % newSize;
+            for(int i = 0; i < PlanarCodec.PIXELS_PER_TILE; ++i) {
+                int index = pixels[offset + i] & 0xFF;
+                if(index != 0) {
+                    pixels[offset + i] = (byte) (index + shift);
+                }
+            }
+            return slot / newSize;
+        }
+
+        if(candidates == null || oldPalette >= candidates.length || newPalettes == 0) {
+            // no colors to go by
+            for(int i = 0; i < PlanarCodec.PIXELS_PER_TILE; ++i) {
+                int index = pixels[offset + i] & 0xFF;
+                if(index != 0) {
+                    pixels[offset + i] = (byte) opaqueIndex(index);
+                }
+            }
+            return 0;
+        }
+
+        Arrays.fill(histogram, 0);
+        for(int i = 0; i < PlanarCodec.PIXELS_PER_TILE; ++i) {
+            histogram[pixels[offset + i] & 0xFF]++;
+        }
+
+        int best = 0;
+        long bestError = Long.MAX_VALUE;
+        for(int c = 0; c < candidates[oldPalette].length; ++c) {
+            long error = 0;
+            int[] errors = nearestError[oldPalette][c];
+            for(int i = 0; i < oldSize; ++i) {
+                error += (long) histogram[i] * errors[i];
+            }
+            if(error < bestError) {
+                bestError = error;
+                best = c;
+            }
+        }
+
+        byte[] remap = nearestIndex[oldPalette][best];
+        for(int i = 0; i < PlanarCodec.PIXELS_PER_TILE; ++i) {
+            pixels[offset + i] = remap[pixels[offset + i] & 0xFF];
+        }
+        return candidates[oldPalette][best];
+    }
+
+    private class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] pixels;
+        private final int[] tilePalette;
+        private final int tilesPerRow;
+        private final int firstRow;
+        private final int endRow;
+
+        RowTask(byte[] pixels, int[] tilePalette, int tilesPerRow, int firstRow, int endRow) {
+            this.pixels = pixels;
+            this.tilePalette = tilePalette;
+            this.tilesPerRow = tilesPerRow;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = endRow - firstRow;
+            if(rows <= PARALLEL_THRESHOLD) {
+                int[] histogram = new int[oldSize];
+                for(int t = firstRow * tilesPerRow; t < endRow * tilesPerRow; ++t) {
+                    tilePalette[t] = convertTile(pixels, t * PlanarCodec.PIXELS_PER_TILE, tilePalette[t], histogram);
+                }
+                return;
+            }
+
+            int middle = firstRow + (rows / 2);
+            invokeAll(
+                new RowTask(pixels, tilePalette, tilesPerRow, firstRow, middle),
+                new RowTask(pixels, tilePalette, tilesPerRow, middle, endRow)
+            );
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * CompressedChr
+ * CHR data packed to save ROM space.  The planar bytes are cut into banks of BANK_SIZE and each bank is
+ * compressed on its own, all at once across the common ForkJoin pool; the compressed streams go into the file
+ * back to back.  Each stream marks its own end, so reading them back just unpacks one after the other.
+ */
+public class CompressedChr {
+    // 4 KB is the usual unit games decompress graphics in
+    public static final int BANK_SIZE = 4 * 1024;
+
+    public enum Format {
+        RLE,
+        LZ2;
+
+        byte[] compress(byte[] data, int offset, int length) {
+            return (this == RLE) ? Rle.compress(data, offset, length) : Lz2.compress(data, offset, length);
+        }
+
+        int decompress(byte[] data, int offset, ByteArrayOutputStream out) {
+            return (this == RLE) ? Rle.decompress(data, offset, out) : Lz2.decompress(data, offset, out);
+        }
+    }
+
+    // compress length bytes of data, bank by bank, in parallel
+    public static byte[] compress(byte[] data, int length, Format format) {
+        List<Callable<byte[]>> banks = new ArrayList<>();
+        for(int start = 0; start < length; start += BANK_SIZE) {
+            int bankStart = start;
+            int bankLength = Math.min(BANK_SIZE, length - start);
+            banks.add(() -> format.compress(data, bankStart, bankLength));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            for(Future<byte[]> bank : ForkJoinPool.commonPool().invokeAll(banks)) {
+                byte[] packed = bank.get();
+                out.write(packed, 0, packed.length);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted compressing CHR data", e);
+        } catch(ExecutionException e) {
+            throw new IllegalStateException("compressing CHR data failed", e.getCause());
+        }
+        return out.toByteArray();
+    }
+
+    // unpack every stream in data, one after the other
+    public static byte[] decompress(byte[] data, Format format) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2);
+        int i = 0;
+        while(i < data.length) {
+            i += format.decompress(data, i, out);
+        }
+        return out.toByteArray();
+    }
+
+    public static void writeFile(EditingData ed, Path path, Format format) throws IOException {
+        TileMemory tiles = ed.getTileMemory();
+        byte[] packed = compress(tiles.getData(), tiles.usedBytes(), format);
+        AtomicFile.write(path, channel -> {
+            ByteBuffer b = ByteBuffer.wrap(packed);
+            while(b.hasRemaining()) {
+                channel.write(b);
+            }
+        });
+    }
+
+    public static byte[] readFile(Path path, Format format) throws IOException {
+        try {
+            return decompress(Files.readAllBytes(path), format);
+        } catch(IllegalArgumentException e) {
+            throw new IOException(path.getFileName() + ": " + e.getMessage());
+        }
+    }
+}
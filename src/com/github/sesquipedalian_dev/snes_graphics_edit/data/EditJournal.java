@@ -0,0 +1,261 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * EditJournal
+ * Undo / redo history for the current editing data.  Entries only remember what actually changed - each pixel a
+ * stroke touched with its old and new color, or a single palette color - rather than copies of whole tiles.
+ * The history is capped at a configurable number of bytes; past that the oldest entries are forgotten.  Meant
+ * to be used from the FX thread only.
+ */
+public class EditJournal {
+    public static final long DEFAULT_MEMORY_LIMIT = 4 * 1024 * 1024;
+
+    // singleton pattern
+    private static EditJournal instance;
+    public static EditJournal getInstance() {
+        if(instance == null) {
+            instance = new EditJournal();
+        }
+        return instance;
+    }
+
+    // something that can be undone and redone
+    private interface Entry {
+        void undo(EditingData ed);
+        void redo(EditingData ed);
+        // rough heap footprint, for the memory cap
+        long sizeInBytes();
+    }
+
+    // newest entries at the end of both
+    private final ArrayDeque<Entry> undoEntries = new ArrayDeque<>();
+    private final ArrayDeque<Entry> redoEntries = new ArrayDeque<>();
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+    private long memoryUsed = 0;
+
+    // the data the history belongs to; when something else becomes the current editing data the history is dropped
+    private EditingData document;
+    private PixelStroke openStroke;
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public void setMemoryLimit(long bytes) {
+        memoryLimit = bytes;
+        trim();
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    // start collecting pixel changes into one undoable step
+    public void beginStroke() {
+        checkDocument();
+        openStroke = new PixelStroke();
+    }
+
+    // a pixel (see TileMemory.pixelIndex) changed as part of the stroke in progress.  Ignored if no stroke is open
+    public void recordPixel(int pixelIndex, int oldColor, int newColor) {
+        if(openStroke != null && oldColor != newColor) {
+            openStroke.add(pixelIndex, oldColor, newColor);
+        }
+    }
+
+    public void endStroke() {
+        PixelStroke stroke = openStroke;
+        openStroke = null;
+        if(stroke != null && stroke.count > 0) {
+            stroke.trimToSize();
+            push(stroke);
+        }
+    }
+
+    public void recordPaletteColor(int palette, int index, int oldColor, int newColor) {
+        checkDocument();
+        if(oldColor != newColor) {
+            push(new PaletteEdit(palette, index, oldColor, newColor));
+        }
+    }
+
+    public boolean canUndo() {
+        checkDocument();
+        return !undoEntries.isEmpty();
+    }
+
+    public boolean canRedo() {
+        checkDocument();
+        return !redoEntries.isEmpty();
+    }
+
+    // returns false if there was nothing to undo
+    public boolean undo() {
+        if(!canUndo()) {
+            return false;
+        }
+        Entry e = undoEntries.pollLast();
+        e.undo(document);
+        redoEntries.addLast(e);
+        return true;
+    }
+
+    // returns false if there was nothing to redo
+    public boolean redo() {
+        if(!canRedo()) {
+            return false;
+        }
+        Entry e = redoEntries.pollLast();
+        e.redo(document);
+        undoEntries.addLast(e);
+        return true;
+    }
+
+    public void clear() {
+        undoEntries.clear();
+        redoEntries.clear();
+        memoryUsed = 0;
+        openStroke = null;
+    }
+
+    private void checkDocument() {
+        EditingData current = EditingData.getInstance();
+        if(current != document) {
+            clear();
+            document = current;
+        }
+    }
+
+    private void push(Entry e) {
+        // a new edit means the redo history no longer applies
+        for(Entry r : redoEntries) {
+            memoryUsed -= r.sizeInBytes();
+        }
+        redoEntries.clear();
+
+        undoEntries.addLast(e);
+        memoryUsed += e.sizeInBytes();
+        trim();
+    }
+
+    // forget the oldest history until we're back under the limit
+    private void trim() {
+        while(memoryUsed > memoryLimit && !undoEntries.isEmpty()) {
+            memoryUsed -= undoEntries.pollFirst().sizeInBytes();
+        }
+        while(memoryUsed > memoryLimit && !redoEntries.isEmpty()) {
+            memoryUsed -= redoEntries.pollFirst().sizeInBytes();
+        }
+    }
+
+    // every pixel changed by one stroke, packed as pixel index << 16 | old color << 8 | new color
+    private static class PixelStroke implements Entry {
+        private long[] changes = new long[16];
+        private int count = 0;
+
+        void add(int pixelIndex, int oldColor, int newColor) {
+            if(count == changes.length) {
+                changes = Arrays.copyOf(changes, count * 2);
+            }
+            changes[count++] = ((long) pixelIndex << 16) | ((oldColor & 0xFF) << 8) | (newColor & 0xFF);
+        }
+
+        void trimToSize() {
+            changes = Arrays.copyOf(changes, count);
+        }
+
+        @Override
+        public void undo(EditingData ed) {
+            TileMemory tiles = ed.getTileMemory();
+            long stamp = tiles.getLock().writeLock();
+            try {
+                // backwards, so a pixel touched twice ends up with its oldest color
+                int pixels = tiles.getTileRows() * tiles.getTilesPerRow() * PlanarCodec.PIXELS_PER_TILE;
+                for(int i = count - 1; i >= 0; --i) {
+                    int pixelIndex = (int) (changes[i] >>> 16);
+                    // never write into rows that aren't there any more
+                    if(pixelIndex < pixels) {
+                        tiles.setPixel(pixelIndex, (int) (changes[i] >> 8) & 0xFF);
+                    }
+                }
+            } finally {
+                tiles.getLock().unlockWrite(stamp);
+            }
+            ed.changed();
+        }
+
+        @Override
+        public void redo(EditingData ed) {
+            TileMemory tiles = ed.getTileMemory();
+            long stamp = tiles.getLock().writeLock();
+            try {
+                int pixels = tiles.getTileRows() * tiles.getTilesPerRow() * PlanarCodec.PIXELS_PER_TILE;
+                for(int i = 0; i < count; ++i) {
+                    int pixelIndex = (int) (changes[i] >>> 16);
+                    if(pixelIndex < pixels) {
+                        tiles.setPixel(pixelIndex, (int) changes[i] & 0xFF);
+                    }
+                }
+            } finally {
+                tiles.getLock().unlockWrite(stamp);
+            }
+            ed.changed();
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return 32 + (8L * changes.length);
+        }
+    }
+
+    private static class PaletteEdit implements Entry {
+        private final int palette;
+        private final int index;
+        private final int oldColor;
+        private final int newColor;
+
+        PaletteEdit(int palette, int index, int oldColor, int newColor) {
+            this.palette = palette;
+            this.index = index;
+            this.oldColor = oldColor;
+            this.newColor = newColor;
+        }
+
+        @Override
+        public void undo(EditingData ed) {
+            if(palette < ed.currentPalettes()) {
+                ed.getPalette(palette).selectColor(index, oldColor);
+            }
+        }
+
+        @Override
+        public void redo(EditingData ed) {
+            if(palette < ed.currentPalettes()) {
+                ed.getPalette(palette).selectColor(index, newColor);
+            }
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return 32;
+        }
+    }
+}
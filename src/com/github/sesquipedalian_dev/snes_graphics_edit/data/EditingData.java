@@ -17,30 +17,135 @@ package com.github.sesquipedalian_dev.snes_graphics_edit.data;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Scanner;
-import java.util.Stack;
-import java.util.regex.MatchResult;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * EditingData
  * Container for the things the user can edit using this program.  We'll have some number of palettes,
  * some tile space we're manipulating, etc.
+ *
+ * Edits are made on the FX thread, and the canvases read on the FX thread too, so neither needs to lock anything.
+ * Anything else wanting to look at the data (saving, exporting, analysis) should work from a snapshot(), which
+ * can be taken from any thread.  Every edit holds this data's write lock while it's changing things - only for
+ * as long as one batch of pixels takes, and it's never contended by the FX thread itself.  Snapshots read
+ * optimistically without locking, and only fall back to the read lock if an edit got in the way.
  */
 public class EditingData {
     // singleton pattern
-    private static EditingData instance;
+    private static volatile EditingData instance;
     public static EditingData getInstance() {
         return instance;
     }
 
     public EditingData(int bitDepth) {
+        this(bitDepth, true);
+    }
+
+    private EditingData(int bitDepth, boolean makeCurrent) {
         this.bitDepth = bitDepth;
         this.palettes = new ArrayList<>(maxPalettes());
-        this.tiles = new Stack<>();
+        this.tiles = new TileMemory(bitDepth, TILES_PER_ROW, maxTileRows(), lock);
+        this.tiles.owner = this;
         this.filename = "";
 
+        if(makeCurrent) {
+            makeCurrent();
+        }
+    }
+
+    // data that isn't current yet, e.g. a file still being read in.  Changes to it don't notify anyone until
+    // it's made current
+    static EditingData detached(int bitDepth) {
+        return new EditingData(bitDepth, false);
+    }
+
+    // make this the data being edited
+    public void makeCurrent() {
         instance = this;
+        fireChanged();
+    }
+
+    // held while tiles, palettes or the tilemap change; shared with the tile memory, our palettes and our tilemap,
+    // which lock it for edits made straight through them.  StampedLock isn't reentrant, so only the outermost edit takes it
+    private final StampedLock lock = new StampedLock();
+    StampedLock getLock() {
+        return lock;
+    }
+
+    // a point-in-time copy, e.g. for saving on another thread while editing carries on.  The copy never becomes
+    // the current instance.  It's at most 64 KB of tiles and 512 bytes of palettes, so this is cheap enough to
+    // do on the FX thread, and it's safe to do from any other thread
+    public EditingData snapshot() {
+        EditingData copy = new EditingData(bitDepth, false);
+        copy.filename = filename;
+        copy.savedLayout = savedLayout;
+
+        // usually nothing is being edited right then, so try copying without locking first
+        long stamp = lock.tryOptimisticRead();
+        if(stamp != 0) {
+            try {
+                copyTo(copy);
+                if(lock.validate(stamp)) {
+                    return copy;
+                }
+            } catch(RuntimeException e) {
+                // an edit got in halfway through and left us looking at a mess; copy again below
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            copyTo(copy);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return copy;
+    }
+
+    private void copyTo(EditingData copy) {
+        tiles.copyTo(copy.tiles);
+        copy.palettes.clear();
+        for(int i = 0; i < palettes.size(); ++i) {
+            Palette p = palettes.get(i).copy();
+            p.owner = copy;
+            copy.palettes.add(p);
+        }
+        Tilemap map = tilemap;
+        copy.tilemap = (map != null) ? map.copy() : null;
+        if(copy.tilemap != null) {
+            copy.tilemap.owner = copy;
+        }
+    }
+
+    // listeners told whenever the data being edited changes (including being replaced by a new instance).
+    // static since they care about whichever instance is current.  May be called from any thread.
+    private static final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    public static void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+    public static void removeChangeListener(Runnable listener) {
+        changeListeners.remove(listener);
     }
+    private static void fireChanged() {
+        for(Runnable listener : changeListeners) {
+            listener.run();
+        }
+    }
+
+    // only the current data's changes are worth telling anyone about.  Our palettes, tilemap and tile views call
+    // this for edits made straight through them
+    void changed() {
+        if(instance == this) {
+            fireChanged();
+        }
+    }
+
+    // where our lines went in the .inc we were last saved to, so saving there again only has to patch what
+    // changed; see IncWriter.  Shared with our snapshots, since they're what actually gets written
+    AtomicReference<IncWriter.Layout> savedLayout = new AtomicReference<>();
 
     private String filename;
     public void setFilename(String filename) {
@@ -51,105 +156,68 @@ public class EditingData {
     }
 
     public static EditingData fromFile(String filename) throws IOException {
-        EditingData retVal = null;
+        EditingData retVal = readFile(filename);
+        retVal.makeCurrent();
+        System.out.println(String.format("read in editing data: %d %d %d", retVal.getTileRows(), retVal.getBitDepth(), retVal.currentPalettes()));
+        return retVal;
+    }
 
+    // read a file into data that isn't made current, so nobody's told about it; safe to call from several threads
+    // at once, e.g. for batch conversion
+    public static EditingData readFile(String filename) throws IOException {
         File f = new File(filename);
         String shortName = f.getName().replaceAll("\\..*$", "");
 
-        FileInputStream fIn = new FileInputStream(f);
-        BufferedReader in = new BufferedReader(new InputStreamReader(fIn));
-        int state = 0;
-        int nextTileY = 0;
-        String line;
-        while((line = in.readLine()) != null) {
-            Scanner s = new Scanner(line);
-            if (state == 0) { // haven't found starting data yet
-                String found = s.findInLine("; bitDepth: (\\d+)");
-                if (found != null) {
-                    MatchResult r = s.match();
-                    String group = r.group(1);
-                    int bitDepth = Integer.parseInt(group);
-
-                    retVal = new EditingData(bitDepth);
-                    state = 1;
-                }
-            } else if (state == 1) { // found bit depth
-                String found = s.findInLine("(" + shortName + "Palettes:|" + shortName + "Tiles:)");
-                if (found != null) {
-                    MatchResult r = s.match();
-                    String group = r.group(1);
-                    if (group.equals(shortName + "Palettes:")) {
-                        // start parsing palettes
-                        state = 2;
-                    } else if (group.equals(shortName + "Tiles:")) {
-                        // start parsing tiles
-                        state = 3;
-                    }
-                }
-            } else if (state == 2) { // parsing palettes
-                if (line.matches("^\\s*\\.db.*")) {
-                    // if we find a data row, add it as a palette
-                    Palette p = Palette.fromString(new Scanner(line), retVal.getBitDepth());
-                    retVal.addPalette(p);
-                } else if (line.matches("^\\s*;end")) {
-                    // if we get to the end, go back to looking for the next data type
-                    state = 1;
-                }
-            } else if (state == 3) { // parsing tiles
-                if (line.matches("; tile row \\d+")) {
-                    // if we get a new row, add the new row
-                    retVal.addTileRow();
-                    nextTileY = 0;
-                } else if (line.matches("^\\s*\\.db.*")) {
-                    // if we get a new tile data, add it
-                    TileCHR t = TileCHR.fromString(new Scanner(line), retVal.getBitDepth());
-                    retVal.setTile(retVal.getTileRows() - 1, nextTileY, t);
-                    nextTileY++;
-                } else if (line.matches("^\\s*;end")) {
-                    // if we get to the end, go back to looking for next data type
-                    state = 1;
-                }
+        EditingData retVal;
+        if(ProjectFile.isProjectFile(filename)) {
+            retVal = ProjectFile.read(f.toPath());
+        } else {
+            try(InputStream in = new FileInputStream(f)) {
+                retVal = new IncReader(in, f.getName()).read(shortName);
             }
         }
 
         retVal.filename = filename;
-        System.out.println(String.format("read in editing data: %d %d %d", retVal.getTileRows(), retVal.getBitDepth(), retVal.currentPalettes()));
         return retVal;
     }
 
+    // the file is only replaced once the new contents are completely written.  Saved as a binary project if the
+    // name ends in ProjectFile.EXTENSION, otherwise as an .inc
     public void toFile(String filename) throws IOException {
-        File f = new File(filename);
-        String shortName = f.getName().replaceAll("\\..*$", "");
+        if(ProjectFile.isProjectFile(filename)) {
+            ProjectFile.write(this, new File(filename).toPath());
+        } else {
+            IncWriter.writeFile(this, new File(filename).toPath());
+        }
+    }
 
-        FileOutputStream fOut = new FileOutputStream(f);
-        PrintStream out = new PrintStream(fOut);
-        out.println("; Created by snes graphics editor https://github.com/sesquipedalian-dev/snes_graphics_editor ;");
-        out.println("; bitDepth: " + bitDepth);
-        out.println(";");
-        out.println();
-
-        out.println(shortName + "Palettes:");
-        out.println();
-        for(Palette p : palettes) {
-            p.serializeToStream(out);
-        }
-        out.println(";end");
-
-        out.println(shortName + "Tiles:");
-        out.println();
-        for(int x = 0; x < tiles.size(); ++x) {
-            out.println("; tile row " + x);
-            ArrayList<TileCHR> row = tiles.get(x);
-
-            for(int y = 0; y < TILES_PER_ROW; ++y) {
-                out.println("; tile " + ((x * TILES_PER_ROW) + y));
-                row.get(y).serializeToStream(out);
-            }
-            out.println();
+    // CHR data compressed to save ROM space; see CompressedChr
+    public void toCompressedChr(String filename, CompressedChr.Format format) throws IOException {
+        CompressedChr.writeFile(this, new File(filename).toPath(), format);
+    }
+
+    // replace our tiles with the ones in a compressed CHR file
+    public void fromCompressedChr(String filename, CompressedChr.Format format) throws IOException {
+        byte[] chr = CompressedChr.readFile(new File(filename).toPath(), format);
+        boolean replaced;
+        long stamp = lock.writeLock();
+        try {
+            replaced = tiles.replaceTiles(chr, chr.length);
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        out.println(";end");
+        if(!replaced) {
+            throw new IOException(String.format("%s unpacks to %d bytes, more than the %d bytes of tiles we can hold at %d bpp",
+                    filename, chr.length, maxTileRows() * TILES_PER_ROW * TileCHR.bytesPerTile(bitDepth), bitDepth));
+        }
+        EditJournal.getInstance().clear();
+        changed();
+    }
 
-        out.println("; Thanks for playing! ;");
+    // raw binary export for .incbin: planar CHR data to one file, CGRAM palette words to the other
+    public void toBinaryFiles(String chrFilename, String palFilename) throws IOException {
+        BinWriter.writeChr(this, new File(chrFilename).toPath());
+        BinWriter.writePal(this, new File(palFilename).toPath());
     }
 
     private int bitDepth;
@@ -167,13 +235,27 @@ public class EditingData {
     }
 
     public void addPalette(Palette p) {
-        if(palettes.size() != maxPalettes()) {
+        long stamp = lock.writeLock();
+        try {
+            if(palettes.size() == maxPalettes()) {
+                return;
+            }
             palettes.add(p);
+            p.owner = this;
+        } finally {
+            lock.unlockWrite(stamp);
         }
+        changed();
     }
 
     public void deletePalette(int index) {
-        palettes.remove(index);
+        long stamp = lock.writeLock();
+        try {
+            palettes.remove(index).owner = null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        changed();
     }
 
     public int currentPalettes() {
@@ -185,57 +267,208 @@ public class EditingData {
     }
 
 
+    // set a batch of pixels (see TileMemory.pixelIndex) to one color, recording them in the open undo stroke.
+    // listeners hear about it once, and only if something actually changed.  returns how many pixels changed
+    public int paintPixels(int[] pixelIndices, int count, int color) {
+        EditJournal journal = EditJournal.getInstance();
+        int trueColor = color % (1 << bitDepth);
+        int changed = 0;
+        long stamp = lock.writeLock();
+        try {
+            for(int i = 0; i < count; ++i) {
+                int oldColor = tiles.getPixel(pixelIndices[i]);
+                if(oldColor != trueColor) {
+                    tiles.setPixel(pixelIndices[i], trueColor);
+                    journal.recordPixel(pixelIndices[i], oldColor, trueColor);
+                    changed++;
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        if(changed > 0) {
+            changed();
+        }
+        return changed;
+    }
+
+    // add imported tiles after the existing ones, and lay them out at the top left of the tilemap the way they were
+    // in the image, each entry using the palette its cell was matched to.  A tilemap big enough is started if there
+    // isn't one.  Cells past the edge of the map, or whose tile number is too big for an entry, are left off it.
+    // Returns the number of the first tile, or -1 if they don't fit
+    public int importTiles(ImageImporter.Result imported) {
+        int first;
+        long stamp = lock.writeLock();
+        try {
+            first = tiles.appendTiles(imported.pixels, imported.getTileCount());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if(first < 0) {
+            return first;
+        }
+
+        int across = imported.getTilesAcross();
+        int down = imported.getTileCount() / across;
+        if(tilemap == null) {
+            boolean big = across > Tilemap.SCREEN_SIZE || down > Tilemap.SCREEN_SIZE;
+            setTilemap(new Tilemap(big ? Tilemap.SCREEN_SIZE * 2 : Tilemap.SCREEN_SIZE));
+        }
+        int[] block = new int[imported.getTileCount()];
+        for(int t = 0; t < block.length; ++t) {
+            int tile = first + t;
+            block[t] = (tile <= Tilemap.TILE_MASK) ? Tilemap.entry(tile, imported.getPalette(t), false, false, false) : -1;
+        }
+        tilemap.setEntries(0, 0, across, block);
+        changed();
+        return first;
+    }
+
+    // fold tiles that are copies of each other (allowing for flips) down to one; see TileMemory.deduplicate for
+    // what comes back.  Tile numbers all move, so there's nothing sensible left to undo
+    public int[] deduplicateTiles() {
+        int[] remap;
+        long stamp = lock.writeLock();
+        try {
+            remap = tiles.deduplicate();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if(tilemap != null) {
+            tilemap.remapTiles(remap);
+        }
+        EditJournal.getInstance().clear();
+        changed();
+        return remap;
+    }
+
+    // swap in the palettes a PaletteOptimizer came up with and move every tile's pixels over to them.  Palettes
+    // the plan doesn't need are blanked, ready for new colors.  The tilemap follows the tiles' new palettes.
+    // Not undoable.  Returns false, changing nothing, if the tiles, palettes or tilemap were edited after the
+    // optimizer copied them
+    public boolean applyPalettePlan(PaletteOptimizer.Plan plan) {
+        long stamp = lock.writeLock();
+        try {
+            if(!plan.isCurrent(tiles, palettes, tilemap)) {
+                return false;
+            }
+            int tileCount = plan.getTileCount();
+            byte[] pixels = new byte[tileCount * PlanarCodec.PIXELS_PER_TILE];
+            PlanarCodec.decodeBankParallel(tiles.getData(), 0, tileCount, bitDepth, pixels, 0);
+            plan.remapPixels(pixels, tileCount);
+            PlanarCodec.encodeBankParallel(pixels, 0, tileCount, bitDepth, tiles.getData(), 0);
+            tiles.tilesChanged(0, tileCount);
+
+            int count = Math.max(palettes.size(), plan.getPaletteCount());
+            for(Palette p : palettes) {
+                p.owner = null;
+            }
+            palettes.clear();
+            for(int i = 0; i < count; ++i) {
+                Palette p = new Palette(bitDepth);
+                if(i < plan.getPaletteCount()) {
+                    System.arraycopy(plan.palettes[i], 0, p.colors, 0, p.colors.length);
+                }
+                p.owner = this;
+                palettes.add(p);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        if(tilemap != null) {
+            tilemap.repaletteTiles(plan.paletteForTile);
+        }
+        EditJournal.getInstance().clear();
+        changed();
+        return true;
+    }
+
     // SNES stores this many 8x8 tiles in a 'row' in VRAM.  relevant to wrapping bigger tiles than 8x8
     // e.g. the tiles involved in a 16x16 sprite starting at <tile> are: tile, tile+1, tile+16, tile+17.
     public static final int TILES_PER_ROW = 16;
 
-    // max rows in CHR data??? unsure if SNES sets a limit, but the game can adress a max of
-    // 64x64 tiles in the tile map data, and the max 'tile' point is a 10-bit int
-    // TODO is this needed?????
-    public static final int MAX_TILE_ROWS = 16;
+    // SNES VRAM is 64 KB, which bounds how much CHR data a scene can have loaded at once
+    public static final int VRAM_SIZE = 64 * 1024;
 
-    private Stack<ArrayList<TileCHR>> tiles;
+    // max rows in CHR data: as many as fill VRAM at our bit depth (e.g. 4bpp = 2048 tiles = 128 rows)
+    public int maxTileRows() {
+        return VRAM_SIZE / (TILES_PER_ROW * TileCHR.bytesPerTile(bitDepth));
+    }
+
+    // the background map laid out with our tiles, if there is one.  It's saved separately from the tiles
+    private Tilemap tilemap;
+
+    public Tilemap getTilemap() {
+        return tilemap;
+    }
+
+    public void setTilemap(Tilemap tilemap) {
+        long stamp = lock.writeLock();
+        try {
+            if(this.tilemap != null) {
+                this.tilemap.owner = null;
+            }
+            if(tilemap != null) {
+                tilemap.owner = this;
+            }
+            this.tilemap = tilemap;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        changed();
+    }
+
+    // all the tiles live in one block of planar data
+    private TileMemory tiles;
+
+    public TileMemory getTileMemory() {
+        return tiles;
+    }
 
     public int getTileRows() {
-        return tiles.size();
+        return tiles.getTileRows();
     }
 
     public void addTileRow() {
-        if(tiles.size() + 1 > MAX_TILE_ROWS ) {
-            return;
+        boolean added;
+        long stamp = lock.writeLock();
+        try {
+            added = tiles.addTileRow();
+        } finally {
+            lock.unlockWrite(stamp);
         }
-
-        ArrayList<TileCHR> newRow = new ArrayList<TileCHR>(TILES_PER_ROW);
-        for(int i = 0; i < TILES_PER_ROW; ++i) {
-            TileCHR newTile = new TileCHR(bitDepth);
-            newRow.add(newTile);
+        if(added) {
+            changed();
         }
-        tiles.push(newRow);
     }
 
     public void subtractTileRow() {
-        tiles.pop();
+        long stamp = lock.writeLock();
+        try {
+            tiles.subtractTileRow();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        // strokes in the journal may have touched the row that's gone
+        EditJournal.getInstance().clear();
+        changed();
     }
 
-    // 0-indexed
+    // 0-indexed.  The tile returned is a view into the tile memory; changes to it are changes to the data.
     public TileCHR getTile(int x, int y) {
-        if(x < 0 || x > getTileRows()) {
-            throw new IndexOutOfBoundsException("X between [0, " + getTileRows() + ")");
-        }
-        if(y < 0 || y > TILES_PER_ROW) {
-            throw new IndexOutOfBoundsException("Y between [0, " + TILES_PER_ROW + ")");
-        }
-        return tiles.get(x).get(y);
+        return tiles.getTile(x, y);
     }
 
-    // 0-indexed
+    // 0-indexed.  The pixels of t are copied into the tile memory.
     public void setTile(int x, int y, TileCHR t) {
-        if(x < 0 || x > getTileRows()) {
-            throw new IndexOutOfBoundsException("X between [0, " + getTileRows() + ")");
-        }
-        if(y < 0 || y > TILES_PER_ROW) {
-            throw new IndexOutOfBoundsException("Y between [0, " + TILES_PER_ROW + ")");
+        long stamp = lock.writeLock();
+        try {
+            tiles.setTile(x, y, t);
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        tiles.get(x).set(y, t);
+        changed();
     }
 }
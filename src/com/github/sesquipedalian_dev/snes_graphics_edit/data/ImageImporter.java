@@ -0,0 +1,220 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ImageImporter
+ * Turns an image (PNG or anything else ImageIO reads) into tiles.  The image is cut into 8x8 cells, taken left to
+ * right then top to bottom, and every pixel is brought down to the nearest SNES color.  Each cell then gets
+ * whichever of the document's palettes draws it with the least error, and its pixels become indices into that
+ * palette.  Only the palettes a tilemap entry can name are tried, since EditingData.importTiles records each
+ * cell's palette on the tilemap.  Cells are independent of each other, so they're spread across the common
+ * ForkJoin pool.
+ *
+ * Mostly transparent pixels become color 0, as does anything past the edge of the image in a partial cell.  Color
+ * 0 is transparent on the SNES, so everything else only ever gets matched to colors 1 and up.
+ */
+public class ImageImporter {
+    // cells per ForkJoin task, at the least
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    private static final int ALPHA_CUTOFF = 0x80;
+
+    private final int bitDepth;
+    private final int paletteCount;
+
+    // per palette, for every SNES color: (squared error << 8) | index of the closest color in the palette, not
+    // counting color 0
+    private final int[][] nearest;
+
+    // copies what it needs out of ed's palettes, so the import itself can run on any thread
+    public ImageImporter(EditingData ed) {
+        this.bitDepth = ed.getBitDepth();
+        this.paletteCount = Math.max(1, Math.min(ed.currentPalettes(), Tilemap.PALETTE_MASK + 1));
+        this.nearest = new int[paletteCount][];
+        for(int p = 0; p < paletteCount; ++p) {
+            Palette palette = (p < ed.currentPalettes()) ? ed.getPalette(p) : new Palette(bitDepth);
+            nearest[p] = nearestTable(palette);
+        }
+    }
+
+    private static int[] nearestTable(Palette palette) {
+        int size = palette.colorsSize();
+        int[] reds = new int[size];
+        int[] greens = new int[size];
+        int[] blues = new int[size];
+        for(int i = 0; i < size; ++i) {
+            int c = palette.getSnesColor(i);
+            reds[i] = SnesColor.red(c);
+            greens[i] = SnesColor.green(c);
+            blues[i] = SnesColor.blue(c);
+        }
+
+        int[] table = new int[SnesColor.COLORS];
+        for(int c = 0; c < SnesColor.COLORS; ++c) {
+            int r = SnesColor.red(c);
+            int g = SnesColor.green(c);
+            int b = SnesColor.blue(c);
+
+            int bestIndex = 1;
+            int bestError = Integer.MAX_VALUE;
+            for(int i = 1; i < size; ++i) {
+                int dr = r - reds[i];
+                int dg = g - greens[i];
+                int db = b - blues[i];
+                int error = (dr * dr) + (dg * dg) + (db * db);
+                if(error < bestError) {
+                    bestError = error;
+                    bestIndex = i;
+                }
+            }
+            table[c] = (bestError << 8) | bestIndex;
+        }
+        return table;
+    }
+
+    // what came out of an import, ready for EditingData.importTiles
+    public static class Result {
+        private final int tilesAcross;
+        private final int tileCount;
+        final byte[] pixels;
+        private final int[] paletteForTile;
+
+        Result(int tilesAcross, int tilesDown) {
+            this.tilesAcross = tilesAcross;
+            this.tileCount = tilesAcross * tilesDown;
+            this.pixels = new byte[tileCount * PlanarCodec.PIXELS_PER_TILE];
+            this.paletteForTile = new int[tileCount];
+        }
+
+        // cells across the image, i.e. where the image wraps to its next row of tiles
+        public int getTilesAcross() {
+            return tilesAcross;
+        }
+
+        public int getTileCount() {
+            return tileCount;
+        }
+
+        // the palette a tile's pixels are indices into
+        public int getPalette(int tile) {
+            return paletteForTile[tile];
+        }
+    }
+
+    public Result read(File f) throws IOException {
+        BufferedImage image = ImageIO.read(f);
+        if(image == null) {
+            throw new IOException("not an image format we can read: " + f.getName());
+        }
+        return importImage(image);
+    }
+
+    public Result importImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+
+        int tilesAcross = (width + TileCHR.TILE_DIM - 1) / TileCHR.TILE_DIM;
+        int tilesDown = (height + TileCHR.TILE_DIM - 1) / TileCHR.TILE_DIM;
+        Result result = new Result(tilesAcross, tilesDown);
+        ForkJoinPool.commonPool().invoke(new CellTask(argb, width, height, result, 0, result.tileCount));
+        return result;
+    }
+
+    // does one cell: fills in its pixels and palette in result
+    private void importCell(int[] argb, int width, int height, Result result, int tile) {
+        // SNES color of each pixel, or -1 if it's to be color 0 whatever the palette
+        int[] cell = new int[PlanarCodec.PIXELS_PER_TILE];
+        int top = (tile / result.tilesAcross) * TileCHR.TILE_DIM;
+        int left = (tile % result.tilesAcross) * TileCHR.TILE_DIM;
+        for(int x = 0; x < TileCHR.TILE_DIM; ++x) {
+            for(int y = 0; y < TileCHR.TILE_DIM; ++y) {
+                int row = top + x;
+                int col = left + y;
+                int pixel = (row < height && col < width) ? argb[(row * width) + col] : 0;
+                cell[(x * TileCHR.TILE_DIM) + y] = ((pixel >>> 24) < ALPHA_CUTOFF) ? -1 : SnesColor.fromArgb(pixel);
+            }
+        }
+
+        int bestPalette = 0;
+        long bestError = Long.MAX_VALUE;
+        for(int p = 0; p < paletteCount && bestError > 0; ++p) {
+            int[] table = nearest[p];
+            long error = 0;
+            for(int c : cell) {
+                if(c >= 0) {
+                    error += table[c] >>> 8;
+                }
+            }
+            if(error < bestError) {
+                bestError = error;
+                bestPalette = p;
+            }
+        }
+
+        int[] table = nearest[bestPalette];
+        int start = tile * PlanarCodec.PIXELS_PER_TILE;
+        for(int i = 0; i < cell.length; ++i) {
+            result.pixels[start + i] = (byte) ((cell[i] >= 0) ? table[cell[i]] & 0xFF : 0);
+        }
+        result.paletteForTile[tile] = bestPalette;
+    }
+
+    private class CellTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] argb;
+        private final int width;
+        private final int height;
+        private final Result result;
+        private final int firstTile;
+        private final int endTile;
+
+        CellTask(int[] argb, int width, int height, Result result, int firstTile, int endTile) {
+            this.argb = argb;
+            this.width = width;
+            this.height = height;
+            this.result = result;
+            this.firstTile = firstTile;
+            this.endTile = endTile;
+        }
+
+        @Override
+        protected void compute() {
+            int tiles = endTile - firstTile;
+            if(tiles <= PARALLEL_THRESHOLD) {
+                for(int tile = firstTile; tile < endTile; ++tile) {
+                    importCell(argb, width, height, result, tile);
+                }
+                return;
+            }
+
+            int middle = firstTile + (tiles / 2);
+            invokeAll(
+                new CellTask(argb, width, height, result, firstTile, middle),
+                new CellTask(argb, width, height, result, middle, endTile)
+            );
+        }
+    }
+}
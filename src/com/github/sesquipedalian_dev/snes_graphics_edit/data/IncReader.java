@@ -0,0 +1,401 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * IncReader
+ * Reads the WLA include files written by EditingData.toFile.  Lines are pulled out of the stream by hand and the
+ * '.db $XX, $XX, ...' rows are decoded straight into tile memory and palettes, without regexes or a String per
+ * row.  Problems are reported as IOExceptions naming the line they were found on.  The data read in is not made
+ * current; that's up to the caller.
+ */
+public class IncReader {
+    // hears about the file as it's read in; called on the reading thread
+    public interface Listener {
+        // the first tileRows rows of tiles in 'loading' are completely read and won't change again.  Throwing
+        // stops the read
+        void tileRowsRead(EditingData loading, int tileRows) throws IOException;
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // value of each ASCII hex digit, -1 for anything else
+    private static final int[] HEX_VALUE = new int[128];
+    static {
+        for(int i = 0; i < HEX_VALUE.length; ++i) {
+            HEX_VALUE[i] = -1;
+        }
+        for(int i = 0; i < 10; ++i) {
+            HEX_VALUE['0' + i] = i;
+        }
+        for(int i = 0; i < 6; ++i) {
+            HEX_VALUE['A' + i] = 10 + i;
+            HEX_VALUE['a' + i] = 10 + i;
+        }
+    }
+
+    private static final byte[] BIT_DEPTH_MARKER = "; bitDepth: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TILE_ROW_MARKER = "; tile row ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TILEMAP_MARKER = "; tilemap: ".getBytes(StandardCharsets.US_ASCII);
+
+    private final InputStream in;
+    private final String sourceName;
+    private Listener listener;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPos = 0;
+    private int bufferLimit = 0;
+    private long bytesBuffered = 0;
+
+    // the line we're currently looking at, without its line ending
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+    private int lineNumber = 0;
+
+    // sourceName is only used in error messages
+    public IncReader(InputStream in, String sourceName) {
+        this.in = in;
+        this.sourceName = sourceName;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // how much of the input has been consumed so far
+    public long getBytesRead() {
+        return bytesBuffered - (bufferLimit - bufferPos);
+    }
+
+    // read in a whole file's worth of editing data. shortName is the label prefix used in the file,
+    // e.g. 'HornyGoat' for 'HornyGoatPalettes:'
+    public EditingData read(String shortName) throws IOException {
+        byte[] palettesLabel = (shortName + "Palettes:").getBytes(StandardCharsets.US_ASCII);
+        byte[] tilesLabel = (shortName + "Tiles:").getBytes(StandardCharsets.US_ASCII);
+
+        EditingData retVal = null;
+        int state = 0;
+        int nextTileY = 0;
+
+        // palettes can be split over several .db lines (16 colors to a line), so collect their bytes here
+        byte[] paletteBytes = null;
+        int paletteBytesRead = 0;
+
+        while(nextLine()) {
+            if(state == 0) { // haven't found starting data yet
+                int at = indexOf(BIT_DEPTH_MARKER);
+                if(at >= 0) {
+                    int bitDepth = parseDecimal(at + BIT_DEPTH_MARKER.length);
+                    if(bitDepth != 1 && bitDepth != 2 && bitDepth != 4 && bitDepth != 8) {
+                        throw error("unsupported bit depth " + bitDepth);
+                    }
+
+                    retVal = EditingData.detached(bitDepth);
+                    paletteBytes = new byte[(1 << bitDepth) * 2];
+                    state = 1;
+                }
+            } else if(state == 1) { // found bit depth
+                if(indexOf(palettesLabel) >= 0) {
+                    // start parsing palettes
+                    state = 2;
+                } else if(indexOf(tilesLabel) >= 0) {
+                    // start parsing tiles
+                    state = 3;
+                }
+            } else if(state == 2) { // parsing palettes
+                int dataStart = dbDataStart();
+                if(dataStart >= 0) {
+                    // if we find a data row, add its colors to the palette we're building
+                    paletteBytesRead += parseDb(dataStart, paletteBytes, paletteBytesRead, paletteBytes.length - paletteBytesRead);
+                    if(paletteBytesRead == paletteBytes.length) {
+                        retVal.addPalette(Palette.fromBytes(retVal.getBitDepth(), paletteBytes, 0));
+                        paletteBytesRead = 0;
+                    }
+                } else if(isEnd()) {
+                    if(paletteBytesRead != 0) {
+                        throw error("palette data ended part way through a palette");
+                    }
+                    // if we get to the end, go back to looking for the next data type
+                    state = 1;
+                }
+            } else if(state == 3) { // parsing tiles
+                if(isTileRowHeader()) {
+                    // if we get a new row, add the new row
+                    if(retVal.getTileRows() == retVal.maxTileRows()) {
+                        throw error("too many tile rows, max is " + retVal.maxTileRows());
+                    }
+                    if(listener != null && retVal.getTileRows() > 0) {
+                        // everything up to the new row is done
+                        listener.tileRowsRead(retVal, retVal.getTileRows());
+                    }
+                    retVal.addTileRow();
+                    nextTileY = 0;
+                } else {
+                    int dataStart = dbDataStart();
+                    if(dataStart >= 0) {
+                        // if we get a new tile data, decode it right into tile memory
+                        if(retVal.getTileRows() == 0) {
+                            throw error("tile data before any '; tile row' header");
+                        }
+                        if(nextTileY >= EditingData.TILES_PER_ROW) {
+                            throw error("more than " + EditingData.TILES_PER_ROW + " tiles in a row");
+                        }
+
+                        TileMemory tiles = retVal.getTileMemory();
+                        int bytesPerTile = TileCHR.bytesPerTile(retVal.getBitDepth());
+                        int count = parseDb(dataStart, tiles.getData(), tiles.tileOffset(retVal.getTileRows() - 1, nextTileY), bytesPerTile);
+                        if(count != bytesPerTile) {
+                            throw error("expected " + bytesPerTile + " bytes of tile data, found " + count);
+                        }
+                        tiles.tilesChanged(((retVal.getTileRows() - 1) * EditingData.TILES_PER_ROW) + nextTileY, 1);
+                        nextTileY++;
+                    } else if(isEnd()) {
+                        // if we get to the end, go back to looking for next data type
+                        state = 1;
+                    }
+                }
+            }
+        }
+
+        if(retVal == null) {
+            throw new IOException(sourceName + ": no '; bitDepth: ' header found");
+        }
+        if(listener != null) {
+            listener.tileRowsRead(retVal, retVal.getTileRows());
+        }
+        return retVal;
+    }
+
+    // read in a tilemap file as written by IncWriter.writeTilemap
+    public Tilemap readTilemap(String shortName) throws IOException {
+        byte[] tilemapLabel = (shortName + "Tilemap:").getBytes(StandardCharsets.US_ASCII);
+
+        byte[] words = null;
+        int wordBytesRead = 0;
+        int state = 0;
+        while(nextLine() && state != 3) {
+            if(state == 0) { // looking for the size
+                int at = indexOf(TILEMAP_MARKER);
+                if(at >= 0) {
+                    int size = parseDecimal(at + TILEMAP_MARKER.length);
+                    if(size != Tilemap.SCREEN_SIZE && size != Tilemap.SCREEN_SIZE * 2) {
+                        throw error("unsupported tilemap size " + size);
+                    }
+                    words = new byte[size * size * 2];
+                    state = 1;
+                }
+            } else if(state == 1) { // looking for the label
+                if(indexOf(tilemapLabel) >= 0) {
+                    state = 2;
+                }
+            } else if(state == 2) { // parsing entries
+                int dataStart = dbDataStart();
+                if(dataStart >= 0) {
+                    wordBytesRead += parseDb(dataStart, words, wordBytesRead, words.length - wordBytesRead);
+                } else if(isEnd()) {
+                    state = 3;
+                }
+            }
+        }
+
+        if(words == null) {
+            throw new IOException(sourceName + ": no '; tilemap: ' header found");
+        }
+        if(wordBytesRead != words.length) {
+            throw new IOException(sourceName + ": expected " + words.length + " bytes of tilemap, found " + wordBytesRead);
+        }
+        return Tilemap.fromBytes(words, 0, words.length);
+    }
+
+    // pull the next line out of the input; false once there's nothing left
+    private boolean nextLine() throws IOException {
+        lineLength = 0;
+        boolean any = false;
+        while(true) {
+            if(bufferPos == bufferLimit) {
+                bufferLimit = in.read(buffer, 0, buffer.length);
+                bufferPos = 0;
+                if(bufferLimit <= 0) {
+                    bufferLimit = 0;
+                    break;
+                }
+                bytesBuffered += bufferLimit;
+            }
+
+            any = true;
+            byte b = buffer[bufferPos++];
+            if(b == '\n') {
+                break;
+            }
+            if(b != '\r') {
+                if(lineLength == line.length) {
+                    byte[] bigger = new byte[line.length * 2];
+                    System.arraycopy(line, 0, bigger, 0, lineLength);
+                    line = bigger;
+                }
+                line[lineLength++] = b;
+            }
+        }
+
+        if(any) {
+            lineNumber++;
+        }
+        return any;
+    }
+
+    private IOException error(String problem) {
+        return new IOException(sourceName + ":" + lineNumber + ": " + problem);
+    }
+
+    private int skipSpace(int i) {
+        while(i < lineLength && (line[i] == ' ' || line[i] == '\t')) {
+            ++i;
+        }
+        return i;
+    }
+
+    // first index of needle in the current line, -1 if it's not there
+    private int indexOf(byte[] needle) {
+        outer:
+        for(int i = 0; i + needle.length <= lineLength; ++i) {
+            for(int j = 0; j < needle.length; ++j) {
+                if(line[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private int parseDecimal(int i) throws IOException {
+        int value = 0;
+        int digits = 0;
+        while(i < lineLength && line[i] >= '0' && line[i] <= '9') {
+            value = (value * 10) + (line[i] - '0');
+            ++i;
+            ++digits;
+        }
+        if(digits == 0) {
+            throw error("expected a number");
+        }
+        return value;
+    }
+
+    // '^\s*;end$'
+    private boolean isEnd() {
+        int i = skipSpace(0);
+        return (lineLength - i == 4) && line[i] == ';' && line[i + 1] == 'e' && line[i + 2] == 'n' && line[i + 3] == 'd';
+    }
+
+    // '^; tile row \d+$'
+    private boolean isTileRowHeader() {
+        if(lineLength <= TILE_ROW_MARKER.length || indexOf(TILE_ROW_MARKER) != 0) {
+            return false;
+        }
+        for(int i = TILE_ROW_MARKER.length; i < lineLength; ++i) {
+            if(line[i] < '0' || line[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // if the current line is a '.db' row, the index just past the '.db'; otherwise -1
+    private int dbDataStart() {
+        int i = skipSpace(0);
+        if(i + 3 <= lineLength && line[i] == '.' && line[i + 1] == 'd' && line[i + 2] == 'b') {
+            return i + 3;
+        }
+        return -1;
+    }
+
+    private int parseDb(int start, byte[] out, int outOffset, int maxBytes) throws IOException {
+        try {
+            return parseDbBytes(line, start, lineLength, out, outOffset, maxBytes);
+        } catch(IllegalArgumentException e) {
+            throw error(e.getMessage());
+        }
+    }
+
+    // decode the '$XX, $XX, ...' list in text[start, end) into out, returning how many bytes there were.
+    // a trailing ';' comment is allowed.  Throws IllegalArgumentException describing anything malformed.
+    static int parseDbBytes(byte[] text, int start, int end, byte[] out, int outOffset, int maxBytes) {
+        int count = 0;
+        int i = start;
+        while(true) {
+            while(i < end && (text[i] == ' ' || text[i] == '\t')) {
+                ++i;
+            }
+            if(i == end || text[i] == ';') {
+                if(count > 0) {
+                    throw new IllegalArgumentException("expected a byte after ','");
+                }
+                return count;
+            }
+
+            if(text[i] != '$' || i + 2 >= end) {
+                throw new IllegalArgumentException("expected '$XX' at column " + (i + 1));
+            }
+            int hi = hexValue(text[i + 1]);
+            int lo = hexValue(text[i + 2]);
+            if(hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("bad hex byte at column " + (i + 1));
+            }
+            if(count == maxBytes) {
+                throw new IllegalArgumentException("too many bytes, expected at most " + maxBytes);
+            }
+            out[outOffset + count++] = (byte) ((hi << 4) | lo);
+            i += 3;
+
+            while(i < end && (text[i] == ' ' || text[i] == '\t')) {
+                ++i;
+            }
+            if(i == end || text[i] == ';') {
+                return count;
+            }
+            if(text[i] != ',') {
+                throw new IllegalArgumentException("expected ',' at column " + (i + 1));
+            }
+            ++i;
+        }
+    }
+
+    // parse a single '.db' line (as found by Palette.fromString / TileCHR.fromString)
+    static int parseDbLine(String text, byte[] out, int outOffset, int maxBytes) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        int i = 0;
+        while(i < bytes.length && (bytes[i] == ' ' || bytes[i] == '\t')) {
+            ++i;
+        }
+        if(i + 3 > bytes.length || bytes[i] != '.' || bytes[i + 1] != 'd' || bytes[i + 2] != 'b') {
+            throw new IOException("expected a '.db' line: " + text);
+        }
+        try {
+            return parseDbBytes(bytes, i + 3, bytes.length, out, outOffset, maxBytes);
+        } catch(IllegalArgumentException e) {
+            throw new IOException(e.getMessage() + ": " + text);
+        }
+    }
+
+    private static int hexValue(byte b) {
+        return (b >= 0) ? HEX_VALUE[b] : -1;
+    }
+}
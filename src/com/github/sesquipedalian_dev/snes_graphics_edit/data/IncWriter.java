@@ -0,0 +1,365 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * IncWriter
+ * Writes editing data out as a WLA include file.  Bytes are formatted through a lookup table into one reused
+ * buffer, which is drained into a channel whenever it fills up.  Files are written through AtomicFile, so a
+ * failed save never leaves a truncated .inc behind.
+ *
+ * Every palette and tile .db line is the same width for a given bit depth, so once we've written a file the data
+ * remembers where each one's lines went (see Layout).  Saving the same data to the same file again only rewrites
+ * the lines of palettes and tiles that changed since, in place.  Anything that moves lines around - different
+ * numbers of rows or palettes, or the file changing behind our back - gets the whole file written out again.
+ */
+public class IncWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // room for the longest .db line we write (a tile at 8 bpp), for writers that only ever write a line or so
+    static final int LINE_BUFFER_SIZE = 512;
+
+    // "$XX" for every byte value, 3 chars each
+    private static final byte[] HEX = new byte[256 * 3];
+    static {
+        byte[] digits = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+        for(int i = 0; i < 256; ++i) {
+            HEX[i * 3] = '$';
+            HEX[(i * 3) + 1] = digits[i >> 4];
+            HEX[(i * 3) + 2] = digits[i & 0xF];
+        }
+    }
+
+    private static final byte[] DB = ".db ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEPARATOR = ", ".getBytes(StandardCharsets.US_ASCII);
+
+    // toFile always wrote its own lines with println, so match whatever that would have used
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    // past this fraction of tiles changed, writing the whole file is about as quick as seeking around patching it
+    private static final int PATCH_LIMIT_DIVISOR = 4;
+
+    // where each palette and tile went in a file we wrote, and which version of it is there now.  Kept on the
+    // EditingData that was saved; see EditingData.savedLayout
+    static class Layout {
+        final int bitDepth;
+        final long[] paletteOffsets;
+        final long[] paletteVersions;
+        final long[] tileOffsets;
+        final long[] tileVersions;
+
+        // the file, as an absolute path, and what it looked like once we were done with it; if it's changed, someone
+        // else has been at it
+        Path path;
+        long fileSize;
+        FileTime modified;
+
+        Layout(int bitDepth, int palettes, int tiles) {
+            this.bitDepth = bitDepth;
+            this.paletteOffsets = new long[palettes];
+            this.paletteVersions = new long[palettes];
+            this.tileOffsets = new long[tiles];
+            this.tileVersions = new long[tiles];
+        }
+    }
+
+    private final WritableByteChannel out;
+    private final ByteBuffer buffer;
+
+    // bytes flushed out to the channel so far
+    private long flushed = 0;
+
+    // filled in by writeEditingData
+    private Layout layout;
+
+    public IncWriter(WritableByteChannel out) {
+        this(out, BUFFER_SIZE);
+    }
+
+    // bufferSize is just how much gets formatted before it's pushed out to the channel
+    IncWriter(WritableByteChannel out, int bufferSize) {
+        this.out = out;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    // write the editing data to path: just the changed lines if this data was last saved to this file and nothing
+    // else has touched it since, otherwise the whole file, replacing whatever is at path only once it's all written
+    public static void writeFile(EditingData ed, Path path) throws IOException {
+        writeFile(ed, path, true);
+    }
+
+    // as above; rememberLayout is false for one-off writes (e.g. batch conversion) that won't be saved over again
+    public static void writeFile(EditingData ed, Path path, boolean rememberLayout) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        Layout previous = ed.savedLayout.get();
+        if(previous != null && previous.path.equals(key)) {
+            if(rememberLayout) {
+                try {
+                    if(patchFile(ed, key, previous)) {
+                        return;
+                    }
+                } catch(IOException e) {
+                    // the file may be half patched now; writing it all out again below fixes that
+                }
+            }
+            ed.savedLayout.compareAndSet(previous, null);
+        }
+
+        String shortName = path.getFileName().toString().replaceAll("\\..*$", "");
+        IncWriter[] writer = new IncWriter[1];
+        AtomicFile.write(path, channel -> {
+            writer[0] = new IncWriter(channel);
+            writer[0].writeEditingData(ed, shortName);
+            writer[0].flush();
+        });
+
+        if(rememberLayout) {
+            Layout layout = writer[0].layout;
+            layout.path = key;
+            layout.fileSize = Files.size(key);
+            layout.modified = Files.getLastModifiedTime(key);
+            ed.savedLayout.set(layout);
+        }
+    }
+
+    // rewrite the lines of palettes and tiles that changed since the file was written with the given layout.
+    // Returns false (without touching the file) if the lines wouldn't line up any more
+    private static boolean patchFile(EditingData ed, Path path, Layout layout) throws IOException {
+        synchronized(layout) {
+            TileMemory tiles = ed.getTileMemory();
+            int tileCount = tiles.getTileRows() * tiles.getTilesPerRow();
+            if(layout.bitDepth != ed.getBitDepth() || layout.tileVersions.length != tileCount ||
+                    layout.paletteVersions.length != ed.currentPalettes()) {
+                return false;
+            }
+            if(!Files.exists(path) || Files.size(path) != layout.fileSize || !Files.getLastModifiedTime(path).equals(layout.modified)) {
+                return false;
+            }
+
+            int dirtyTiles = 0;
+            for(int t = 0; t < tileCount; ++t) {
+                if(tiles.getTileVersion(t) != layout.tileVersions[t]) {
+                    dirtyTiles++;
+                }
+            }
+            if(dirtyTiles > tileCount / PATCH_LIMIT_DIVISOR) {
+                return false;
+            }
+
+            int dirtyPalettes = 0;
+            for(int i = 0; i < ed.currentPalettes(); ++i) {
+                if(ed.getPalette(i).getVersion() != layout.paletteVersions[i]) {
+                    dirtyPalettes++;
+                }
+            }
+            if(dirtyTiles == 0 && dirtyPalettes == 0) {
+                // already saved
+                return true;
+            }
+
+            int bytesPerTile = TileCHR.bytesPerTile(ed.getBitDepth());
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                IncWriter w = new IncWriter(channel);
+                for(int i = 0; i < ed.currentPalettes(); ++i) {
+                    Palette p = ed.getPalette(i);
+                    // take the version first; if the palette changes while we write, the next save catches it
+                    long version = p.getVersion();
+                    if(version != layout.paletteVersions[i]) {
+                        channel.position(layout.paletteOffsets[i]);
+                        w.writePalette(p);
+                        w.flush();
+                        layout.paletteVersions[i] = version;
+                    }
+                }
+
+                for(int t = 0; t < tileCount; ++t) {
+                    long version = tiles.getTileVersion(t);
+                    if(version != layout.tileVersions[t]) {
+                        channel.position(layout.tileOffsets[t]);
+                        w.writeDb(tiles.getData(), t * bytesPerTile, bytesPerTile);
+                        w.flush();
+                        layout.tileVersions[t] = version;
+                    }
+                }
+                channel.force(true);
+            } finally {
+                layout.modified = Files.getLastModifiedTime(path);
+            }
+            return true;
+        }
+    }
+
+    // a tilemap gets a file of its own
+    public static void writeTilemapFile(Tilemap map, Path path) throws IOException {
+        String shortName = path.getFileName().toString().replaceAll("\\..*$", "");
+        AtomicFile.write(path, channel -> {
+            IncWriter w = new IncWriter(channel);
+            w.writeTilemap(map, shortName);
+            w.flush();
+        });
+    }
+
+    public void writeEditingData(EditingData ed, String shortName) throws IOException {
+        println("; Created by snes graphics editor https://github.com/sesquipedalian-dev/snes_graphics_editor ;");
+        println("; bitDepth: " + ed.getBitDepth());
+        println(";");
+        println("");
+
+        TileMemory tiles = ed.getTileMemory();
+        layout = new Layout(ed.getBitDepth(), ed.currentPalettes(), tiles.getTileRows() * EditingData.TILES_PER_ROW);
+
+        println(shortName + "Palettes:");
+        println("");
+        for(int i = 0; i < ed.currentPalettes(); ++i) {
+            Palette p = ed.getPalette(i);
+            layout.paletteOffsets[i] = position();
+            layout.paletteVersions[i] = p.getVersion();
+            writePalette(p);
+        }
+        println(";end");
+
+        println(shortName + "Tiles:");
+        println("");
+        int bytesPerTile = TileCHR.bytesPerTile(ed.getBitDepth());
+        for(int x = 0; x < tiles.getTileRows(); ++x) {
+            println("; tile row " + x);
+
+            for(int y = 0; y < EditingData.TILES_PER_ROW; ++y) {
+                int tile = (x * EditingData.TILES_PER_ROW) + y;
+                println("; tile " + tile);
+                // version before the bytes, so an edit landing part way through just looks like a change later
+                layout.tileOffsets[tile] = position();
+                layout.tileVersions[tile] = tiles.getTileVersion(tile);
+                writeDb(tiles.getData(), tiles.tileOffset(x, y), bytesPerTile);
+            }
+            println("");
+        }
+        println(";end");
+
+        println("; Thanks for playing! ;");
+    }
+
+    // one .db line per row of each 32x32 screen, in VRAM order, each entry lsb first then msb
+    public void writeTilemap(Tilemap map, String shortName) throws IOException {
+        println("; Created by snes graphics editor https://github.com/sesquipedalian-dev/snes_graphics_editor ;");
+        println("; tilemap: " + map.getSize());
+        println(";");
+        println("");
+
+        println(shortName + "Tilemap:");
+        println("");
+        byte[] words = map.toBytes();
+        int bytesPerLine = Tilemap.SCREEN_SIZE * 2;
+        int linesPerScreen = Tilemap.SCREEN_SIZE;
+        for(int line = 0; line < words.length / bytesPerLine; ++line) {
+            if(line % linesPerScreen == 0) {
+                println("; screen " + (line / linesPerScreen));
+            }
+            writeDb(words, line * bytesPerLine, bytesPerLine);
+        }
+        println(";end");
+    }
+
+    // 16 colors to a .db line, each color lsb first then msb
+    public void writePalette(Palette p) throws IOException {
+        int size = p.colorsSize();
+        for(int i = 0; i < size; ++i) {
+            // at beginning of line tell the assembler we got the datas
+            if(i % 16 == 0) {
+                put(DB);
+            }
+
+            int color16bit = p.getSnesColor(i);
+            putHex(color16bit & 0xFF);
+            put(SEPARATOR);
+            putHex((color16bit >> 8) & 0xFF);
+
+            // unless last color or end of a block of 16, newline
+            if((i % 16 == 15) || (i == size - 1)) {
+                putByte('\n');
+            } else {
+                put(SEPARATOR);
+            }
+        }
+    }
+
+    public void writeTile(TileCHR t) throws IOException {
+        writeDb(t.planar, t.offset, TileCHR.bytesPerTile(t.bitDepth));
+    }
+
+    // one '.db' line holding the given bytes
+    public void writeDb(byte[] data, int offset, int length) throws IOException {
+        put(DB);
+        for(int i = 0; i < length; ++i) {
+            putHex(data[offset + i] & 0xFF);
+            if(i != length - 1) {
+                put(SEPARATOR);
+            }
+        }
+        putByte('\n');
+    }
+
+    // push out anything still sitting in the buffer
+    public void flush() throws IOException {
+        buffer.flip();
+        flushed += buffer.remaining();
+        while(buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // how many bytes have been written, including what's still in the buffer
+    private long position() {
+        return flushed + buffer.position();
+    }
+
+    private void println(String s) throws IOException {
+        put(s.getBytes(StandardCharsets.US_ASCII));
+        put(NEWLINE);
+    }
+
+    private void putHex(int b) throws IOException {
+        if(buffer.remaining() < 3) {
+            flush();
+        }
+        buffer.put(HEX, b * 3, 3);
+    }
+
+    private void putByte(char c) throws IOException {
+        if(!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) c);
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        if(buffer.remaining() < bytes.length) {
+            flush();
+        }
+        buffer.put(bytes);
+    }
+}
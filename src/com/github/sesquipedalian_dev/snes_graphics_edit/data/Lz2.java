@@ -0,0 +1,300 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Lz2
+ * The 'LZ2' format a lot of SNES games (Super Mario World among them) keep their graphics in: LZ77 style copies
+ * from earlier in the output, plus a few kinds of fill.  Each command starts with a header byte CCCLLLLL giving
+ * the command and (length - 1); if CCC is 7 it's a long header 111CCCLL LLLLLLLL with a 10 bit length.  $FF ends
+ * the stream.
+ *   0 direct copy       length bytes follow
+ *   1 byte fill         one byte follows, written length times
+ *   2 word fill         two bytes follow, written alternately for length bytes
+ *   3 increasing fill   one byte follows, written length times adding 1 each time
+ *   4 repeat            a big endian output address follows; length bytes are copied from there (may overlap)
+ * Addresses are 16 bits, so a stream unpacks to at most 64 KB.
+ */
+public class Lz2 {
+    public static final int MAX_OUTPUT = 0x10000;
+
+    private static final int DIRECT_COPY = 0;
+    private static final int BYTE_FILL = 1;
+    private static final int WORD_FILL = 2;
+    private static final int INCREASING_FILL = 3;
+    private static final int REPEAT = 4;
+    private static final int LONG_HEADER = 7;
+    private static final int END = 0xFF;
+
+    private static final int SHORT_MAX = 32;
+    private static final int LONG_MAX = 1024;
+
+    // how far back along a hash chain to look for a repeat, and how long a repeat has to be to stop looking for
+    // a longer one; bigger finds better matches, slower
+    private static final int CHAIN_DEPTH = 32;
+    private static final int GOOD_MATCH = 128;
+    private static final int HASH_BITS = 14;
+    private static final int HASH_SIZE = 1 << HASH_BITS;
+
+    public static byte[] compress(byte[] data, int offset, int length) {
+        if(length > MAX_OUTPUT) {
+            throw new IllegalArgumentException("LZ2 streams hold at most " + MAX_OUTPUT + " bytes, not " + length);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + (length / SHORT_MAX) + 2);
+
+        // chains of earlier positions starting with the same 3 bytes (or at least the same hash of them), for
+        // finding repeats
+        int[] head = new int[HASH_SIZE];
+        Arrays.fill(head, -1);
+        int[] prev = new int[length];
+
+        int literalStart = 0;
+        int i = 0;
+        while(i < length) {
+            // see which command would cover the most bytes for the fewest
+            int bestCommand = DIRECT_COPY;
+            int bestLength = 0;
+            int bestSaving = 0;
+            int bestAddress = 0;
+
+            int fill = fillLength(data, offset, i, length, BYTE_FILL);
+            int saving = fill - cost(fill, 1);
+            if(saving > bestSaving) {
+                bestCommand = BYTE_FILL;
+                bestLength = fill;
+                bestSaving = saving;
+            }
+            fill = fillLength(data, offset, i, length, WORD_FILL);
+            saving = fill - cost(fill, 2);
+            if(saving > bestSaving) {
+                bestCommand = WORD_FILL;
+                bestLength = fill;
+                bestSaving = saving;
+            }
+            fill = fillLength(data, offset, i, length, INCREASING_FILL);
+            saving = fill - cost(fill, 1);
+            if(saving > bestSaving) {
+                bestCommand = INCREASING_FILL;
+                bestLength = fill;
+                bestSaving = saving;
+            }
+
+            int max = Math.min(LONG_MAX, length - i);
+            // no repeat can beat a fill that already runs as far as a command can go
+            if(i + 2 < length && bestLength < max) {
+                int depth = 0;
+                for(int j = head[key(data, offset + i)]; j >= 0 && depth < CHAIN_DEPTH; j = prev[j], ++depth) {
+                    int match = 0;
+                    while(match < max && data[offset + j + match] == data[offset + i + match]) {
+                        ++match;
+                    }
+                    saving = match - cost(match, 2);
+                    if(saving > bestSaving) {
+                        bestCommand = REPEAT;
+                        bestLength = match;
+                        bestSaving = saving;
+                        bestAddress = j;
+                        if(match >= GOOD_MATCH || match == max) {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            int advance;
+            if(bestSaving > 0) {
+                writeDirectCopy(out, data, offset + literalStart, i - literalStart);
+                writeHeader(out, bestCommand, bestLength);
+                switch(bestCommand) {
+                    case BYTE_FILL:
+                    case INCREASING_FILL:
+                        out.write(data[offset + i]);
+                        break;
+                    case WORD_FILL:
+                        out.write(data[offset + i]);
+                        out.write(data[offset + i + 1]);
+                        break;
+                    default:
+                        out.write(bestAddress >> 8);
+                        out.write(bestAddress);
+                        break;
+                }
+                advance = bestLength;
+            } else {
+                advance = 1;
+            }
+
+            // everything we step over can be repeated from later on
+            for(int end = i + advance; i < end; ++i) {
+                if(i + 2 < length) {
+                    int k = key(data, offset + i);
+                    prev[i] = head[k];
+                    head[k] = i;
+                }
+            }
+            if(bestSaving > 0) {
+                literalStart = i;
+            }
+        }
+        writeDirectCopy(out, data, offset + literalStart, length - literalStart);
+        out.write(END);
+        return out.toByteArray();
+    }
+
+    private static int key(byte[] data, int at) {
+        int bytes = ((data[at] & 0xFF) << 16) | ((data[at + 1] & 0xFF) << 8) | (data[at + 2] & 0xFF);
+        return (bytes * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    // bytes a command takes up: its header plus what follows it
+    private static int cost(int length, int argumentBytes) {
+        return ((length > SHORT_MAX) ? 2 : 1) + argumentBytes;
+    }
+
+    // how many bytes starting at i a fill command could cover
+    private static int fillLength(byte[] data, int offset, int i, int length, int command) {
+        int max = Math.min(LONG_MAX, length - i);
+        int first = data[offset + i] & 0xFF;
+        if(command == WORD_FILL && max < 2) {
+            return 0;
+        }
+        int second = (command == WORD_FILL) ? (data[offset + i + 1] & 0xFF) : 0;
+
+        int n = 1;
+        while(n < max) {
+            int expected;
+            if(command == BYTE_FILL) {
+                expected = first;
+            } else if(command == WORD_FILL) {
+                expected = (n % 2 == 0) ? first : second;
+            } else {
+                expected = (first + n) & 0xFF;
+            }
+            if((data[offset + i + n] & 0xFF) != expected) {
+                break;
+            }
+            ++n;
+        }
+        return n;
+    }
+
+    private static void writeDirectCopy(ByteArrayOutputStream out, byte[] data, int start, int count) {
+        while(count > 0) {
+            int chunk = Math.min(LONG_MAX, count);
+            writeHeader(out, DIRECT_COPY, chunk);
+            out.write(data, start, chunk);
+            start += chunk;
+            count -= chunk;
+        }
+    }
+
+    private static void writeHeader(ByteArrayOutputStream out, int command, int length) {
+        int l = length - 1;
+        if(length <= SHORT_MAX) {
+            out.write((command << 5) | l);
+        } else {
+            out.write((LONG_HEADER << 5) | (command << 2) | (l >> 8));
+            out.write(l);
+        }
+    }
+
+    // unpack one stream starting at offset into out.  Returns how many bytes of data the stream took up
+    public static int decompress(byte[] data, int offset, ByteArrayOutputStream out) {
+        byte[] output = new byte[4096];
+        int outputLength = 0;
+
+        int i = offset;
+        while(true) {
+            int header = next(data, i++);
+            if(header == END) {
+                break;
+            }
+
+            int command = header >> 5;
+            int length;
+            if(command == LONG_HEADER) {
+                command = (header >> 2) & 0x7;
+                length = (((header & 0x3) << 8) | next(data, i++)) + 1;
+            } else {
+                length = (header & 0x1F) + 1;
+            }
+
+            if(outputLength + length > MAX_OUTPUT) {
+                throw new IllegalArgumentException("LZ2 stream unpacks to more than " + MAX_OUTPUT + " bytes");
+            }
+            if(outputLength + length > output.length) {
+                output = Arrays.copyOf(output, Math.min(MAX_OUTPUT, Math.max(output.length * 2, outputLength + length)));
+            }
+
+            switch(command) {
+                case DIRECT_COPY:
+                    for(int n = 0; n < length; ++n) {
+                        output[outputLength++] = (byte) next(data, i++);
+                    }
+                    break;
+                case BYTE_FILL: {
+                    byte value = (byte) next(data, i++);
+                    Arrays.fill(output, outputLength, outputLength + length, value);
+                    outputLength += length;
+                    break;
+                }
+                case WORD_FILL: {
+                    byte first = (byte) next(data, i++);
+                    byte second = (byte) next(data, i++);
+                    for(int n = 0; n < length; ++n) {
+                        output[outputLength++] = (n % 2 == 0) ? first : second;
+                    }
+                    break;
+                }
+                case INCREASING_FILL: {
+                    int value = next(data, i++);
+                    for(int n = 0; n < length; ++n) {
+                        output[outputLength++] = (byte) (value + n);
+                    }
+                    break;
+                }
+                case REPEAT: {
+                    int address = (next(data, i++) << 8) | next(data, i++);
+                    if(address >= outputLength) {
+                        throw new IllegalArgumentException("LZ2 repeat from $" + Integer.toHexString(address) + " is past what's been unpacked so far");
+                    }
+                    // byte at a time, since the copy can run into what it's writing
+                    for(int n = 0; n < length; ++n) {
+                        output[outputLength] = output[address + n];
+                        ++outputLength;
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("unknown LZ2 command " + command + " at byte " + (i - 1));
+            }
+        }
+
+        out.write(output, 0, outputLength);
+        return i - offset;
+    }
+
+    private static int next(byte[] data, int i) {
+        if(i >= data.length) {
+            throw new IllegalArgumentException("LZ2 stream runs off the end of the data");
+        }
+        return data[i] & 0xFF;
+    }
+}
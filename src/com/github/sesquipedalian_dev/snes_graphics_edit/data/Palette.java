@@ -15,108 +15,124 @@
  */
 package com.github.sesquipedalian_dev.snes_graphics_edit.data;
 
-import com.github.sesquipedalian_dev.snes_graphics_edit.util.Util;
-import javafx.scene.paint.Color;
-
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
 import java.util.Scanner;
-import java.util.regex.MatchResult;
 
 /**
  * Palette - a set of colors to be used for some tile.  Colors are RGB.  # of colors available dependent on bit depth
- * intended for the data set.
+ * intended for the data set.  Colors are kept packed the way the SNES stores them (see SnesColor); turning
+ * them into toolkit colors is up to the UI.
  */
 public class Palette {
     protected int bitDepth;
-    protected Color colors[];
+    protected short colors[];
+
+    // colors as packed ARGB, built when first asked for
+    protected int argb[];
+
+    // changes whenever a color does; see VersionStamp
+    private long version = VersionStamp.next();
+
+    // the data we've been added to, if any; see EditingData.addPalette.  Edits take its write lock and tell it
+    // when they're done
+    EditingData owner;
 
     public int colorsSize() {
-        return (int) Math.pow(2, bitDepth);
+        return 1 << bitDepth;
     }
 
     public Palette(int bitDepth) {
         this.bitDepth = bitDepth;
 
-        this.colors = new Color[colorsSize()];
-        for(int i = 0; i < colorsSize(); ++i) {
-            // start all colors black
-            this.colors[i] = new Color(0, 0, 0, 1);
-        }
+        // start all colors black
+        this.colors = new short[colorsSize()];
+    }
+
+    // an independent copy of the colors, at the same version
+    public Palette copy() {
+        Palette copy = new Palette(bitDepth);
+        System.arraycopy(colors, 0, copy.colors, 0, colors.length);
+        copy.version = version;
+        return copy;
     }
 
-    // 0-indexed color selection
-    public void selectColor(int index, Color color) {
+    // 0-indexed color selection; color is packed 0BBBBBGGGGGRRRRR
+    public void selectColor(int index, int color) {
         if(index < 0 || index >= colorsSize()) {
             throw new IndexOutOfBoundsException("Palette index should be 0 < INDEX < (2 ^ bit depth) ({" + colorsSize() + "})");
         }
 
-        colors[index] = color;
+        EditingData o = owner;
+        long stamp = (o != null) ? o.getLock().writeLock() : 0;
+        try {
+            colors[index] = (short) (color & (SnesColor.COLORS - 1));
+            argb = null;
+            version = VersionStamp.next();
+        } finally {
+            if(o != null) {
+                o.getLock().unlockWrite(stamp);
+            }
+        }
+        if(o != null) {
+            o.changed();
+        }
     }
 
-    public Color getColor(int index) {
-        return colors[index];
+    public long getVersion() {
+        return version;
     }
 
-    public void serializeToStream(PrintStream out) {
-        for(int i = 0; i < colorsSize(); ++i) {
-            // at beginning of line tell the assembler we got the datas
-            if(i % 16 == 0) {
-                out.print(".db ");
+    // the colors as packed ARGB ints, for renderers that write pixels directly.  Don't modify the array.
+    public int[] getArgbTable() {
+        int[] table = argb;
+        if(table == null) {
+            table = new int[colorsSize()];
+            for(int i = 0; i < table.length; ++i) {
+                table[i] = SnesColor.toArgb(colors[i]);
             }
+            argb = table;
+        }
+        return table;
+    }
 
-            Color current = colors[i];
-
-            // get the 5 bit values the SNES uses for the colors
-            int b5bit = Util.javaToSnesColor(current.getBlue());
-            int g5bit = Util.javaToSnesColor(current.getGreen());
-            int r5bit = Util.javaToSnesColor(current.getRed());
-
-            // pack them into 2 bytes
-            int color16bit = (b5bit << 10) | (g5bit << 5) | (r5bit);
+    public int getArgb(int index) {
+        return SnesColor.toArgb(colors[index]);
+    }
 
-            // print out the LSB first then MSB
-            out.print(String.format("$%02X, ", color16bit & 0xFF));
-            out.print(String.format("$%02X", (color16bit & 0xFF00) >> 8));
+    // the color at index packed the way the SNES stores it in CGRAM: 0BBBBBGGGGGRRRRR
+    public int getSnesColor(int index) {
+        return colors[index];
+    }
 
-            // unless last color or end of a block of 16, newline
-            if((i % 16 == 15) || (i == colorsSize() - 1)) {
-                out.print("\n");
-            } else {
-                out.print(", ");
-            }
+    public void serializeToStream(PrintStream out) {
+        try {
+            IncWriter w = new IncWriter(Channels.newChannel(out), IncWriter.LINE_BUFFER_SIZE);
+            w.writePalette(this);
+            w.flush();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
-    public static Palette fromString(Scanner in, int bitDepth) throws IOException {
+    // build a palette out of the SNES CGRAM format; 2 bytes per color, lsb first
+    public static Palette fromBytes(int bitDepth, byte[] data, int offset) {
         Palette retVal = new Palette(bitDepth);
-
-        // build the regex where we'll pull our info from a line
-        // basically $<hex value>, repeated a bunch of times
-        StringBuilder regex = new StringBuilder();
-        regex.append("^\\s*\\.db\\s*");
-        for(int i = 0; i < (retVal.colorsSize() * 2) - 1; ++i) {
-            regex.append("\\$([A-Fa-f0-9]{2}),\\s*");
+        for(int i = 0; i < retVal.colorsSize(); ++i) {
+            retVal.colors[i] = (short) SnesColor.fromBytes(data[offset + (i * 2) + 1], data[offset + (i * 2)]);
         }
-        regex.append("\\$([A-Fa-f0-9]{2})\\s*$");
-
-        in.findInLine(regex.toString());
-        MatchResult r = in.match();
-        for(int i = 1; i <= r.groupCount(); i += 2) {
-            try {
-                // parse colors data lsb first, then msb
-                int lsb = Integer.parseInt(r.group(i), 16);
-                int msb = Integer.parseInt(r.group(i + 1), 16);
-                System.out.println(String.format("Parsing palette lsb = %s = %02x and msb = %s = %02x", r.group(i), lsb, r.group(i+1), msb));
-
-                Color newColor = Util.snesToJavaColor(msb, lsb);
-                retVal.selectColor(((i + 1) / 2) - 1, newColor);
-            } catch(NumberFormatException e) {
-                System.out.println("problem parsing a byte {" + e + "}");
-            }
-        }
-
         return retVal;
     }
-}
 
+    public static Palette fromString(Scanner in, int bitDepth) throws IOException {
+        // basically $<hex value>, repeated for 2 bytes per color
+        byte[] data = new byte[(1 << bitDepth) * 2];
+        int count = IncReader.parseDbLine(in.nextLine(), data, 0, data.length);
+        if(count != data.length) {
+            throw new IOException("Expected " + data.length + " bytes of palette data, found " + count);
+        }
+        return fromBytes(bitDepth, data, 0);
+    }
+}
@@ -0,0 +1,583 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * PaletteOptimizer
+ * Works out the fewest palettes that can draw every tile, and which tile should use which.  A tile's colors are
+ * whatever its pixels show in the palette it's drawn with now (see Tilemap.palettesForTiles); color 0 is left
+ * out since it's transparent on the SNES, and every new palette keeps the old backdrop color there.  A tile using
+ * more colors than fit in a palette keeps its most used ones and the rest become the nearest of those.
+ *
+ * Packing tiles' color sets into palettes is a bin packing problem, so it's solved greedily: biggest sets first,
+ * each into the palette it adds the fewest new colors to.  The rest of the time budget goes on trying again with
+ * shuffled orders on every core of the common ForkJoin pool, keeping the best packing found.
+ *
+ * The optimizer works on a copy of the data made when it's created, so solve can run on any thread.  The Plan it
+ * comes up with goes back to EditingData.applyPalettePlan, which turns it down if the data's been edited since.
+ */
+public class PaletteOptimizer {
+    // tiles per ForkJoin task, at the least
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    private final int bitDepth;
+    private final int colorsPerPalette;
+    // colors available in a palette, not counting color 0
+    private final int capacity;
+    private final int maxPalettes;
+    private final int tileCount;
+    private final int backdrop;
+
+    // every tile as chunky pixels, and the colors of the palette each one's drawn with now
+    private final byte[] pixels;
+    private final short[][] tileColors;
+
+    // versions of everything the copy was made from, so a plan can tell if it's out of date
+    private final long[] tileVersions;
+    private final long[] paletteVersions;
+    private final long tilemapVersion;
+
+    // what came out of the optimizer, ready for EditingData.applyPalettePlan
+    public static class Plan {
+        final short[][] palettes;
+        final int[] paletteForTile;
+        // per tile, the new index for each old one
+        final byte[][] remap;
+        private final int tooManyColorsTiles;
+        private final int unfitTiles;
+        private final int palettesNeeded;
+        private final long[] tileVersions;
+        private final long[] paletteVersions;
+        private final long tilemapVersion;
+
+        Plan(short[][] palettes, int[] paletteForTile, byte[][] remap, int tooManyColorsTiles, int unfitTiles,
+             int palettesNeeded, long[] tileVersions, long[] paletteVersions, long tilemapVersion) {
+            this.palettes = palettes;
+            this.paletteForTile = paletteForTile;
+            this.remap = remap;
+            this.tooManyColorsTiles = tooManyColorsTiles;
+            this.unfitTiles = unfitTiles;
+            this.palettesNeeded = palettesNeeded;
+            this.tileVersions = tileVersions;
+            this.paletteVersions = paletteVersions;
+            this.tilemapVersion = tilemapVersion;
+        }
+
+        public int getPaletteCount() {
+            return palettes.length;
+        }
+
+        // how many palettes it would take to draw every tile exactly; more than getPaletteCount if they didn't fit
+        public int getPalettesNeeded() {
+            return palettesNeeded;
+        }
+
+        public int getTileCount() {
+            return paletteForTile.length;
+        }
+
+        // the palette a tile should be drawn with afterwards
+        public int getPalette(int tile) {
+            return paletteForTile[tile];
+        }
+
+        // tiles that won't look quite the same because they use more colors than a palette holds
+        public int getTooManyColorsTiles() {
+            return tooManyColorsTiles;
+        }
+
+        // tiles that won't look quite the same because their palette was one of the ones past maxPalettes, so they
+        // make do with the nearest of the ones kept
+        public int getUnfitTiles() {
+            return unfitTiles;
+        }
+
+        // whether the tiles, palettes and tilemap are still what the plan was made from.  Call with the data's
+        // lock held
+        boolean isCurrent(TileMemory tiles, List<Palette> palettes, Tilemap map) {
+            if(tiles.getTileRows() * tiles.getTilesPerRow() != tileVersions.length || palettes.size() != paletteVersions.length) {
+                return false;
+            }
+            for(int t = 0; t < tileVersions.length; ++t) {
+                if(tiles.getTileVersion(t) != tileVersions[t]) {
+                    return false;
+                }
+            }
+            for(int p = 0; p < paletteVersions.length; ++p) {
+                if(palettes.get(p).getVersion() != paletteVersions[p]) {
+                    return false;
+                }
+            }
+            return ((map != null) ? map.getVersion() : 0) == tilemapVersion;
+        }
+
+        // rewrite chunky pixels of the first 'tiles' tiles to index the new palettes
+        void remapPixels(byte[] chunky, int tiles) {
+            for(int t = 0; t < Math.min(tiles, remap.length); ++t) {
+                byte[] table = remap[t];
+                int start = t * PlanarCodec.PIXELS_PER_TILE;
+                for(int i = start; i < start + PlanarCodec.PIXELS_PER_TILE; ++i) {
+                    chunky[i] = table[chunky[i] & 0xFF];
+                }
+            }
+        }
+    }
+
+    // copies what it needs out of a snapshot of ed.  defaultPalette is what tiles that aren't on the tilemap are drawn with
+    public PaletteOptimizer(EditingData ed, int defaultPalette) {
+        EditingData copy = ed.snapshot();
+        this.bitDepth = copy.getBitDepth();
+        this.colorsPerPalette = 1 << bitDepth;
+        this.capacity = colorsPerPalette - 1;
+        this.maxPalettes = copy.maxPalettes();
+
+        TileMemory tiles = copy.getTileMemory();
+        this.tileCount = tiles.getTileRows() * tiles.getTilesPerRow();
+        this.tileVersions = new long[tileCount];
+        for(int t = 0; t < tileCount; ++t) {
+            tileVersions[t] = tiles.getTileVersion(t);
+        }
+        this.paletteVersions = new long[copy.currentPalettes()];
+        for(int p = 0; p < paletteVersions.length; ++p) {
+            paletteVersions[p] = copy.getPalette(p).getVersion();
+        }
+        Tilemap map = copy.getTilemap();
+        this.tilemapVersion = (map != null) ? map.getVersion() : 0;
+        this.pixels = new byte[tileCount * PlanarCodec.PIXELS_PER_TILE];
+        PlanarCodec.decodeBankParallel(tiles.getData(), 0, tileCount, bitDepth, pixels, 0);
+
+        this.backdrop = (copy.currentPalettes() > 0) ? copy.getPalette(0).getSnesColor(0) : 0;
+        int[] palettes = Tilemap.palettesForTiles(map, tileCount, defaultPalette);
+        short[] black = new short[colorsPerPalette];
+        this.tileColors = new short[tileCount][];
+        for(int t = 0; t < tileCount; ++t) {
+            tileColors[t] = (palettes[t] < copy.currentPalettes()) ? copy.getPalette(palettes[t]).colors : black;
+        }
+    }
+
+    // the colors a tile needs: dense color ids, at most capacity of them
+    private static class ColorSet {
+        final long[] bits;
+        final int size;
+        final List<Integer> tiles = new ArrayList<>();
+
+        ColorSet(long[] bits) {
+            this.bits = bits;
+            this.size = bitCount(bits);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof ColorSet) && Arrays.equals(bits, ((ColorSet) o).bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bits);
+        }
+    }
+
+    private static int bitCount(long[] bits) {
+        int count = 0;
+        for(long b : bits) {
+            count += Long.bitCount(b);
+        }
+        return count;
+    }
+
+    // which palette each color set goes in, and what ended up in each palette
+    private static class Packing {
+        final int[] paletteForSet;
+        final List<long[]> palettes;
+        final int totalColors;
+
+        Packing(int[] paletteForSet, List<long[]> palettes, int totalColors) {
+            this.paletteForSet = paletteForSet;
+            this.palettes = palettes;
+            this.totalColors = totalColors;
+        }
+
+        boolean betterThan(Packing other) {
+            return (other == null) || (palettes.size() < other.palettes.size()) ||
+                    (palettes.size() == other.palettes.size() && totalColors < other.totalColors);
+        }
+    }
+
+    // come up with a plan, spending up to about budgetMillis trying to improve on the first packing
+    public Plan solve(long budgetMillis) {
+        long deadline = System.nanoTime() + (budgetMillis * 1_000_000L);
+
+        // the colors each tile actually uses, worked out in parallel
+        int[][] used = new int[tileCount][];
+        ForkJoinPool.commonPool().invoke(new UsedColorsTask(used, 0, tileCount));
+
+        // dense ids for every color any tile uses
+        int[] idForColor = new int[SnesColor.COLORS];
+        Arrays.fill(idForColor, -1);
+        List<Integer> colorForId = new ArrayList<>();
+        for(int[] colors : used) {
+            for(int c : colors) {
+                if(idForColor[c] < 0) {
+                    idForColor[c] = colorForId.size();
+                    colorForId.add(c);
+                }
+            }
+        }
+        int words = Math.max(1, (colorForId.size() + 63) / 64);
+
+        // tiles with the same colors get packed as one
+        Map<ColorSet, ColorSet> unique = new HashMap<>();
+        ColorSet[] setForTile = new ColorSet[tileCount];
+        for(int t = 0; t < tileCount; ++t) {
+            long[] bits = new long[words];
+            for(int c : used[t]) {
+                int id = idForColor[c];
+                bits[id >> 6] |= 1L << (id & 63);
+            }
+            ColorSet set = unique.computeIfAbsent(new ColorSet(bits), s -> s);
+            set.tiles.add(t);
+            setForTile[t] = set;
+        }
+        ColorSet[] sets = unique.values().stream().filter(s -> s.size > 0).toArray(ColorSet[]::new);
+        Arrays.sort(sets, (a, b) -> Integer.compare(b.size, a.size));
+
+        // can't do better than this many palettes
+        int lowerBound = (colorForId.size() + capacity - 1) / capacity;
+
+        Packing best = pack(sets, identityOrder(sets.length), words);
+        if(best.palettes.size() > lowerBound && System.nanoTime() < deadline) {
+            int workers = ForkJoinPool.commonPool().getParallelism();
+            List<Callable<Packing>> searches = new ArrayList<>();
+            for(int w = 0; w < workers; ++w) {
+                long seed = w;
+                int target = lowerBound;
+                searches.add(() -> search(sets, words, seed, deadline, target));
+            }
+            try {
+                for(Future<Packing> f : ForkJoinPool.commonPool().invokeAll(searches)) {
+                    Packing p = f.get();
+                    if(p != null && p.betterThan(best)) {
+                        best = p;
+                    }
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted optimizing palettes", e);
+            } catch(ExecutionException e) {
+                throw new IllegalStateException("optimizing palettes failed", e.getCause());
+            }
+        }
+
+        return makePlan(sets, setForTile, best, colorForId);
+    }
+
+    private static int[] identityOrder(int length) {
+        int[] order = new int[length];
+        for(int i = 0; i < length; ++i) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    // keep packing with the sets in shuffled orders (still roughly biggest first) until time's up
+    private Packing search(ColorSet[] sets, int words, long seed, long deadline, int target) {
+        Random random = new Random(seed);
+        Packing best = null;
+        double[] keys = new double[sets.length];
+        Integer[] order = new Integer[sets.length];
+        int[] orderArray = new int[sets.length];
+        while(System.nanoTime() < deadline) {
+            for(int i = 0; i < sets.length; ++i) {
+                keys[i] = sets[i].size * (0.5 + random.nextDouble());
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(keys[b], keys[a]));
+            for(int i = 0; i < sets.length; ++i) {
+                orderArray[i] = order[i];
+            }
+
+            Packing p = pack(sets, orderArray, words);
+            if(p.betterThan(best)) {
+                best = p;
+                if(best.palettes.size() <= target) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    // greedy: each set goes in the palette it adds the fewest new colors to (the fullest one, on a tie), or a new
+    // palette if it doesn't fit anywhere
+    private Packing pack(ColorSet[] sets, int[] order, int words) {
+        int[] paletteForSet = new int[sets.length];
+        List<long[]> palettes = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        for(int index : order) {
+            ColorSet set = sets[index];
+            int bestPalette = -1;
+            int bestAdded = Integer.MAX_VALUE;
+            int bestSize = -1;
+            for(int p = 0; p < palettes.size(); ++p) {
+                long[] palette = palettes.get(p);
+                int added = 0;
+                for(int w = 0; w < words; ++w) {
+                    added += Long.bitCount(set.bits[w] & ~palette[w]);
+                }
+                int size = sizes.get(p);
+                if(size + added <= capacity && (added < bestAdded || (added == bestAdded && size > bestSize))) {
+                    bestPalette = p;
+                    bestAdded = added;
+                    bestSize = size;
+                }
+            }
+
+            if(bestPalette < 0) {
+                bestPalette = palettes.size();
+                palettes.add(new long[words]);
+                sizes.add(0);
+                bestAdded = set.size;
+            }
+            long[] palette = palettes.get(bestPalette);
+            for(int w = 0; w < words; ++w) {
+                palette[w] |= set.bits[w];
+            }
+            sizes.set(bestPalette, sizes.get(bestPalette) + bestAdded);
+            paletteForSet[index] = bestPalette;
+        }
+
+        int total = 0;
+        for(int size : sizes) {
+            total += size;
+        }
+        return new Packing(paletteForSet, palettes, total);
+    }
+
+    private Plan makePlan(ColorSet[] sets, ColorSet[] setForTile, Packing packing, List<Integer> colorForId) {
+        int needed = packing.palettes.size();
+        // everything on one palette if there's nothing to pack
+        int count = Math.max(1, Math.min(needed, maxPalettes));
+        short[][] palettes = new short[count][colorsPerPalette];
+        for(int p = 0; p < count; ++p) {
+            palettes[p][0] = (short) backdrop;
+            if(p < needed) {
+                long[] bits = packing.palettes.get(p);
+                int slot = 1;
+                for(int id = 0; id < bits.length * 64; ++id) {
+                    if((bits[id >> 6] & (1L << (id & 63))) != 0) {
+                        palettes[p][slot++] = (short) (int) colorForId.get(id);
+                    }
+                }
+            }
+        }
+
+        Map<ColorSet, Integer> paletteForSet = new HashMap<>();
+        for(int i = 0; i < sets.length; ++i) {
+            paletteForSet.put(sets[i], packing.paletteForSet[i]);
+        }
+
+        int[] paletteForTile = new int[tileCount];
+        byte[][] remap = new byte[tileCount][];
+        // tiles with too many colors, and tiles whose palette didn't fit, that won't come out exact
+        int[] inexact = new int[2];
+        ForkJoinPool.commonPool().invoke(new RemapTask(setForTile, paletteForSet, palettes, paletteForTile, remap, inexact, 0, tileCount));
+        return new Plan(palettes, paletteForTile, remap, inexact[0], inexact[1], needed, tileVersions, paletteVersions, tilemapVersion);
+    }
+
+    // the colors a tile shows, most used first, at most capacity of them
+    private int[] usedColors(int tile) {
+        int[] indexCounts = new int[colorsPerPalette];
+        int start = tile * PlanarCodec.PIXELS_PER_TILE;
+        for(int i = start; i < start + PlanarCodec.PIXELS_PER_TILE; ++i) {
+            indexCounts[pixels[i] & 0xFF]++;
+        }
+
+        // a palette can have the same color at more than one index
+        short[] colors = tileColors[tile];
+        int[] found = new int[PlanarCodec.PIXELS_PER_TILE];
+        int[] counts = new int[PlanarCodec.PIXELS_PER_TILE];
+        int distinct = 0;
+        for(int index = 1; index < colorsPerPalette; ++index) {
+            if(indexCounts[index] == 0) {
+                continue;
+            }
+            int c = colors[index];
+            int at = 0;
+            while(at < distinct && found[at] != c) {
+                at++;
+            }
+            if(at == distinct) {
+                found[distinct++] = c;
+            }
+            counts[at] += indexCounts[index];
+        }
+
+        // most used first, then cut down to what fits
+        Integer[] order = new Integer[distinct];
+        for(int i = 0; i < distinct; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(counts[b], counts[a]));
+        int[] retVal = new int[Math.min(distinct, capacity)];
+        for(int i = 0; i < retVal.length; ++i) {
+            retVal[i] = found[order[i]];
+        }
+        return retVal;
+    }
+
+    private static int colorError(int a, int b) {
+        int dr = SnesColor.red(a) - SnesColor.red(b);
+        int dg = SnesColor.green(a) - SnesColor.green(b);
+        int db = SnesColor.blue(a) - SnesColor.blue(b);
+        return (dr * dr) + (dg * dg) + (db * db);
+    }
+
+    // where a tile's old indices go in the given palette; returns the total error over its pixels
+    private long remapTile(int tile, short[] palette, byte[] table) {
+        short[] colors = tileColors[tile];
+        long error = 0;
+        int[] errors = new int[colorsPerPalette];
+        for(int i = 1; i < colorsPerPalette; ++i) {
+            int bestSlot = 1;
+            int bestError = Integer.MAX_VALUE;
+            for(int slot = 1; slot < colorsPerPalette && bestError > 0; ++slot) {
+                int e = colorError(colors[i], palette[slot]);
+                if(e < bestError) {
+                    bestError = e;
+                    bestSlot = slot;
+                }
+            }
+            table[i] = (byte) bestSlot;
+            errors[i] = bestError;
+        }
+        int start = tile * PlanarCodec.PIXELS_PER_TILE;
+        for(int i = start; i < start + PlanarCodec.PIXELS_PER_TILE; ++i) {
+            error += errors[pixels[i] & 0xFF];
+        }
+        return error;
+    }
+
+    private class UsedColorsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[][] used;
+        private final int firstTile;
+        private final int endTile;
+
+        UsedColorsTask(int[][] used, int firstTile, int endTile) {
+            this.used = used;
+            this.firstTile = firstTile;
+            this.endTile = endTile;
+        }
+
+        @Override
+        protected void compute() {
+            if(endTile - firstTile <= PARALLEL_THRESHOLD) {
+                for(int t = firstTile; t < endTile; ++t) {
+                    used[t] = usedColors(t);
+                }
+                return;
+            }
+            int middle = (firstTile + endTile) / 2;
+            invokeAll(new UsedColorsTask(used, firstTile, middle), new UsedColorsTask(used, middle, endTile));
+        }
+    }
+
+    private class RemapTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ColorSet[] setForTile;
+        private final Map<ColorSet, Integer> paletteForSet;
+        private final short[][] palettes;
+        private final int[] paletteForTile;
+        private final byte[][] remap;
+        private final int[] inexact;
+        private final int firstTile;
+        private final int endTile;
+
+        RemapTask(ColorSet[] setForTile, Map<ColorSet, Integer> paletteForSet, short[][] palettes, int[] paletteForTile,
+                  byte[][] remap, int[] inexact, int firstTile, int endTile) {
+            this.setForTile = setForTile;
+            this.paletteForSet = paletteForSet;
+            this.palettes = palettes;
+            this.paletteForTile = paletteForTile;
+            this.remap = remap;
+            this.inexact = inexact;
+            this.firstTile = firstTile;
+            this.endTile = endTile;
+        }
+
+        @Override
+        protected void compute() {
+            if(endTile - firstTile > PARALLEL_THRESHOLD) {
+                int middle = (firstTile + endTile) / 2;
+                invokeAll(new RemapTask(setForTile, paletteForSet, palettes, paletteForTile, remap, inexact, firstTile, middle),
+                        new RemapTask(setForTile, paletteForSet, palettes, paletteForTile, remap, inexact, middle, endTile));
+                return;
+            }
+
+            int tooManyColors = 0;
+            int unfit = 0;
+            for(int t = firstTile; t < endTile; ++t) {
+                byte[] table = new byte[colorsPerPalette];
+                int palette = paletteForSet.getOrDefault(setForTile[t], 0);
+                boolean fit = palette < palettes.length;
+                long error;
+                if(fit) {
+                    error = remapTile(t, palettes[palette], table);
+                } else {
+                    // its palette didn't fit; use whichever of the ones we kept draws it best
+                    error = Long.MAX_VALUE;
+                    byte[] candidate = new byte[colorsPerPalette];
+                    for(int p = 0; p < palettes.length; ++p) {
+                        long e = remapTile(t, palettes[p], candidate);
+                        if(e < error) {
+                            error = e;
+                            palette = p;
+                            System.arraycopy(candidate, 0, table, 0, candidate.length);
+                        }
+                    }
+                }
+                paletteForTile[t] = palette;
+                remap[t] = table;
+                if(error > 0) {
+                    if(fit) {
+                        tooManyColors++;
+                    } else {
+                        unfit++;
+                    }
+                }
+            }
+
+            synchronized(inexact) {
+                inexact[0] += tooManyColors;
+                inexact[1] += unfit;
+            }
+        }
+    }
+}
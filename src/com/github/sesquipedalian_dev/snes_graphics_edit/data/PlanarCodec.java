@@ -0,0 +1,167 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * PlanarCodec
+ * Converts between the SNES planar tile format and 'chunky' pixels (one byte holding the palette index of each
+ * pixel, row major, TILE_DIM * TILE_DIM to a tile).  A row of 8 pixels is worked on at once, packed in a long
+ * with pixel y in byte y: decoding ORs in one table lookup per plane, and encoding gathers one plane's bits out
+ * of all 8 pixels with a single multiply.
+ */
+public class PlanarCodec {
+    public static final int PIXELS_PER_TILE = TileCHR.TILE_DIM * TileCHR.TILE_DIM;
+
+    // for each plane byte, the long with bit 0 of byte y set if pixel y has that bit (leftmost pixel = high bit)
+    private static final long[] EXPAND = new long[256];
+    static {
+        for(int b = 0; b < 256; ++b) {
+            long expanded = 0;
+            for(int y = 0; y < TileCHR.TILE_DIM; ++y) {
+                if(((b >> (TileCHR.TILE_DIM - 1 - y)) & 1) != 0) {
+                    expanded |= 1L << (8 * y);
+                }
+            }
+            EXPAND[b] = expanded;
+        }
+    }
+
+    // bit 0 of each byte
+    private static final long LOW_BITS = 0x0101010101010101L;
+    // moves bit 0 of byte y to bit (63 - y); none of the partial products overlap, so nothing carries
+    private static final long GATHER = 0x8040201008040201L;
+
+    // banks bigger than this many tiles get split up when done in parallel
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    // index of the byte holding row x of the given plane, relative to the start of the tile
+    public static int planeByteIndex(int bitDepth, int x, int plane) {
+        return ((plane / 2) * TileCHR.TILE_DIM * 2) + // skip all the row data for earlier plane groups
+                (x * Math.min(bitDepth, 2)) + // skip 2 bytes for each row (unless in one-bit color depth)
+                (plane % 2); // first or second byte?
+    }
+
+    // the 8 pixels of row x of the tile at offset, pixel y in byte y
+    public static long decodeRow(byte[] planar, int offset, int bitDepth, int x) {
+        long row = 0;
+        for(int plane = 0; plane < bitDepth; ++plane) {
+            row |= EXPAND[planar[offset + planeByteIndex(bitDepth, x, plane)] & 0xFF] << plane;
+        }
+        return row;
+    }
+
+    // store 8 pixels (pixel y in byte y) as row x of the tile at offset
+    public static void encodeRow(long row, byte[] planar, int offset, int bitDepth, int x) {
+        for(int plane = 0; plane < bitDepth; ++plane) {
+            planar[offset + planeByteIndex(bitDepth, x, plane)] = (byte) ((((row >>> plane) & LOW_BITS) * GATHER) >>> 56);
+        }
+    }
+
+    public static void decodeTile(byte[] planar, int offset, int bitDepth, byte[] chunky, int chunkyOffset) {
+        for(int x = 0; x < TileCHR.TILE_DIM; ++x) {
+            long row = decodeRow(planar, offset, bitDepth, x);
+            int rowStart = chunkyOffset + (x * TileCHR.TILE_DIM);
+            for(int y = 0; y < TileCHR.TILE_DIM; ++y) {
+                chunky[rowStart + y] = (byte) (row >>> (8 * y));
+            }
+        }
+    }
+
+    // pixel values are masked down to the bit depth
+    public static void encodeTile(byte[] chunky, int chunkyOffset, int bitDepth, byte[] planar, int offset) {
+        for(int x = 0; x < TileCHR.TILE_DIM; ++x) {
+            int rowStart = chunkyOffset + (x * TileCHR.TILE_DIM);
+            long row = 0;
+            for(int y = 0; y < TileCHR.TILE_DIM; ++y) {
+                row |= (chunky[rowStart + y] & 0xFFL) << (8 * y);
+            }
+            encodeRow(row, planar, offset, bitDepth, x);
+        }
+    }
+
+    // a run of tiles stored back to back, e.g. a whole TileMemory
+    public static void decodeBank(byte[] planar, int offset, int tiles, int bitDepth, byte[] chunky, int chunkyOffset) {
+        int bytesPerTile = TileCHR.bytesPerTile(bitDepth);
+        for(int t = 0; t < tiles; ++t) {
+            decodeTile(planar, offset + (t * bytesPerTile), bitDepth, chunky, chunkyOffset + (t * PIXELS_PER_TILE));
+        }
+    }
+
+    public static void encodeBank(byte[] chunky, int chunkyOffset, int tiles, int bitDepth, byte[] planar, int offset) {
+        int bytesPerTile = TileCHR.bytesPerTile(bitDepth);
+        for(int t = 0; t < tiles; ++t) {
+            encodeTile(chunky, chunkyOffset + (t * PIXELS_PER_TILE), bitDepth, planar, offset + (t * bytesPerTile));
+        }
+    }
+
+    // same as decodeBank, with big banks split up across the common ForkJoin pool
+    public static void decodeBankParallel(byte[] planar, int offset, int tiles, int bitDepth, byte[] chunky, int chunkyOffset) {
+        ForkJoinPool.commonPool().invoke(new BankTask(false, planar, offset, chunky, chunkyOffset, 0, tiles, bitDepth));
+    }
+
+    // same as encodeBank, with big banks split up across the common ForkJoin pool
+    public static void encodeBankParallel(byte[] chunky, int chunkyOffset, int tiles, int bitDepth, byte[] planar, int offset) {
+        ForkJoinPool.commonPool().invoke(new BankTask(true, planar, offset, chunky, chunkyOffset, 0, tiles, bitDepth));
+    }
+
+    private static class BankTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean encode;
+        private final byte[] planar;
+        private final int offset;
+        private final byte[] chunky;
+        private final int chunkyOffset;
+        private final int firstTile;
+        private final int endTile;
+        private final int bitDepth;
+
+        BankTask(boolean encode, byte[] planar, int offset, byte[] chunky, int chunkyOffset, int firstTile, int endTile, int bitDepth) {
+            this.encode = encode;
+            this.planar = planar;
+            this.offset = offset;
+            this.chunky = chunky;
+            this.chunkyOffset = chunkyOffset;
+            this.firstTile = firstTile;
+            this.endTile = endTile;
+            this.bitDepth = bitDepth;
+        }
+
+        @Override
+        protected void compute() {
+            int tiles = endTile - firstTile;
+            if(tiles <= PARALLEL_THRESHOLD) {
+                int planarStart = offset + (firstTile * TileCHR.bytesPerTile(bitDepth));
+                int chunkyStart = chunkyOffset + (firstTile * PIXELS_PER_TILE);
+                if(encode) {
+                    encodeBank(chunky, chunkyStart, tiles, bitDepth, planar, planarStart);
+                } else {
+                    decodeBank(planar, planarStart, tiles, bitDepth, chunky, chunkyStart);
+                }
+                return;
+            }
+
+            int middle = firstTile + (tiles / 2);
+            invokeAll(
+                new BankTask(encode, planar, offset, chunky, chunkyOffset, firstTile, middle, bitDepth),
+                new BankTask(encode, planar, offset, chunky, chunkyOffset, middle, endTile, bitDepth)
+            );
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ProjectFile
+ * Our own binary format for saving the editing data, much quicker to open than an .inc since there's no text to
+ * parse.  All little endian:
+ *   header: "SGFX", format version (1 byte), bit depth (1 byte), tile rows (2 bytes), palettes (2 bytes),
+ *           2 bytes reserved
+ *   palettes: every color of every palette as a CGRAM word, like BinWriter.writePal
+ *   tiles: the planar CHR data, like BinWriter.writeChr
+ * Each block is read with one positional read.  Tiles stay planar in tile memory and are only decoded when
+ * something draws or exports them.
+ */
+public class ProjectFile {
+    public static final String EXTENSION = ".sgfx";
+
+    private static final byte[] MAGIC = { 'S', 'G', 'F', 'X' };
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    public static boolean isProjectFile(String filename) {
+        return filename.toLowerCase().endsWith(EXTENSION);
+    }
+
+    public static void write(EditingData ed, Path path) throws IOException {
+        TileMemory tiles = ed.getTileMemory();
+        int colors = 0;
+        for(int i = 0; i < ed.currentPalettes(); ++i) {
+            colors += ed.getPalette(i).colorsSize();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + (colors * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC);
+        header.put((byte) VERSION);
+        header.put((byte) ed.getBitDepth());
+        header.putShort((short) tiles.getTileRows());
+        header.putShort((short) ed.currentPalettes());
+        header.putShort((short) 0);
+        for(int i = 0; i < ed.currentPalettes(); ++i) {
+            Palette p = ed.getPalette(i);
+            for(int c = 0; c < p.colorsSize(); ++c) {
+                header.putShort((short) p.getSnesColor(c));
+            }
+        }
+        header.flip();
+
+        ByteBuffer tileBlock = ByteBuffer.wrap(tiles.getData(), 0, tiles.usedBytes());
+        ByteBuffer[] blocks = { header, tileBlock };
+        AtomicFile.write(path, channel -> {
+            // a new document has no tiles, but still needs its header
+            while(header.hasRemaining() || tileBlock.hasRemaining()) {
+                channel.write(blocks);
+            }
+        });
+    }
+
+    // the data in the file, not made current
+    public static EditingData read(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size < HEADER_SIZE) {
+                throw new IOException(path.getFileName() + " is too short to be a project file");
+            }
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            for(int i = 0; i < MAGIC.length; ++i) {
+                if(magic[i] != MAGIC[i]) {
+                    throw new IOException(path.getFileName() + " isn't a project file");
+                }
+            }
+            int version = header.get() & 0xFF;
+            if(version != VERSION) {
+                throw new IOException(String.format("%s is project format version %d; we only know version %d", path.getFileName(), version, VERSION));
+            }
+            int bitDepth = header.get() & 0xFF;
+            if(bitDepth != 1 && bitDepth != 2 && bitDepth != 4 && bitDepth != 8) {
+                throw new IOException(String.format("%s has a bit depth of %d", path.getFileName(), bitDepth));
+            }
+            int tileRows = header.getShort() & 0xFFFF;
+            int palettes = header.getShort() & 0xFFFF;
+            header.getShort();
+
+            EditingData ed = EditingData.detached(bitDepth);
+            if(tileRows > ed.maxTileRows() || palettes > ed.maxPalettes()) {
+                throw new IOException(String.format("%s has %d tile rows and %d palettes; at %d bpp there's only room for %d and %d",
+                        path.getFileName(), tileRows, palettes, bitDepth, ed.maxTileRows(), ed.maxPalettes()));
+            }
+
+            int paletteBytes = (1 << bitDepth) * 2;
+            int tileBytes = tileRows * ed.getTileMemory().bytesPerRow();
+            if(size < HEADER_SIZE + ((long) palettes * paletteBytes) + tileBytes) {
+                throw new IOException(path.getFileName() + " is cut short");
+            }
+
+            ByteBuffer paletteBlock = readFully(channel, HEADER_SIZE, palettes * paletteBytes);
+            byte[] paletteData = new byte[paletteBytes];
+            for(int i = 0; i < palettes; ++i) {
+                paletteBlock.get(paletteData);
+                ed.addPalette(Palette.fromBytes(bitDepth, paletteData, 0));
+            }
+
+            ed.getTileMemory().replaceTiles(readFully(channel, HEADER_SIZE + (palettes * paletteBytes), tileBytes));
+            return ed;
+        }
+    }
+
+    // length bytes from position on, ready to be read
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while(b.hasRemaining()) {
+            if(channel.read(b, position + b.position()) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+        b.flip();
+        return b;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Rle
+ * A plain byte run length encoding, cheap enough for a game to unpack with a tiny loop.  The stream is a series
+ * of commands, each starting with a control byte:
+ *   $00          end of stream
+ *   $01 - $7F    that many literal bytes follow
+ *   $80 - $FF    the next byte repeats (control & $7F) + 2 times
+ * Streams end themselves, so several can sit back to back in a file.
+ */
+public class Rle {
+    private static final int MAX_LITERALS = 0x7F;
+    private static final int MIN_RUN = 3;
+    private static final int MAX_RUN = 0x7F + 2;
+
+    public static byte[] compress(byte[] data, int offset, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + (length / MAX_LITERALS) + 2);
+        int end = offset + length;
+        int literalStart = offset;
+        int i = offset;
+        while(i < end) {
+            int run = 1;
+            while(i + run < end && run < MAX_RUN && data[i + run] == data[i]) {
+                ++run;
+            }
+
+            if(run >= MIN_RUN) {
+                writeLiterals(out, data, literalStart, i);
+                out.write(0x80 | (run - 2));
+                out.write(data[i]);
+                i += run;
+                literalStart = i;
+            } else {
+                i += run;
+            }
+        }
+        writeLiterals(out, data, literalStart, end);
+        out.write(0);
+        return out.toByteArray();
+    }
+
+    private static void writeLiterals(ByteArrayOutputStream out, byte[] data, int start, int end) {
+        while(start < end) {
+            int count = Math.min(MAX_LITERALS, end - start);
+            out.write(count);
+            out.write(data, start, count);
+            start += count;
+        }
+    }
+
+    // unpack one stream starting at offset into out.  Returns how many bytes of data the stream took up
+    public static int decompress(byte[] data, int offset, ByteArrayOutputStream out) {
+        int i = offset;
+        while(true) {
+            if(i >= data.length) {
+                throw new IllegalArgumentException("RLE stream runs off the end of the data");
+            }
+            int control = data[i++] & 0xFF;
+            if(control == 0) {
+                return i - offset;
+            }
+
+            if(control < 0x80) {
+                if(i + control > data.length) {
+                    throw new IllegalArgumentException("RLE literal runs off the end of the data");
+                }
+                out.write(data, i, control);
+                i += control;
+            } else {
+                if(i >= data.length) {
+                    throw new IllegalArgumentException("RLE run runs off the end of the data");
+                }
+                int count = (control & 0x7F) + 2;
+                byte[] run = new byte[count];
+                Arrays.fill(run, data[i++]);
+                out.write(run, 0, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+/**
+ * SnesColor
+ * Helpers for colors packed the way the SNES stores them in CGRAM: 0BBBBBGGGGGRRRRR.  Every one of the 32768
+ * possible colors is converted to ARGB once up front, so renderers only ever do a table lookup.
+ */
+public class SnesColor {
+    public static final int COLORS = 1 << 15;
+    public static final int COMPONENT_MAX = 0x1F;
+
+    private static final int[] ARGB = new int[COLORS];
+    static {
+        for(int c = 0; c < COLORS; ++c) {
+            ARGB[c] = 0xFF000000 | (scale(red(c)) << 16) | (scale(green(c)) << 8) | scale(blue(c));
+        }
+    }
+
+    // 5 bit component to 8 bits, rounded to nearest
+    private static int scale(int component) {
+        return ((component * 0xFF) + (COMPONENT_MAX / 2)) / COMPONENT_MAX;
+    }
+
+    public static int toArgb(int color) {
+        return ARGB[color & (COLORS - 1)];
+    }
+
+    // nearest SNES color to an ARGB one (alpha ignored)
+    public static int fromArgb(int argb) {
+        return pack(reduce((argb >> 16) & 0xFF), reduce((argb >> 8) & 0xFF), reduce(argb & 0xFF));
+    }
+
+    // 8 bit component to 5 bits, rounded to nearest
+    private static int reduce(int component) {
+        return ((component * COMPONENT_MAX) + (0xFF / 2)) / 0xFF;
+    }
+
+    // each component 0 - 31
+    public static int pack(int red, int green, int blue) {
+        return ((blue & COMPONENT_MAX) << 10) | ((green & COMPONENT_MAX) << 5) | (red & COMPONENT_MAX);
+    }
+
+    // from the two bytes of a CGRAM word; the unused top bit is dropped
+    public static int fromBytes(int msb, int lsb) {
+        return (((msb & 0xFF) << 8) | (lsb & 0xFF)) & (COLORS - 1);
+    }
+
+    public static int red(int color) {
+        return color & COMPONENT_MAX;
+    }
+
+    public static int green(int color) {
+        return (color >> 5) & COMPONENT_MAX;
+    }
+
+    public static int blue(int color) {
+        return (color >> 10) & COMPONENT_MAX;
+    }
+}
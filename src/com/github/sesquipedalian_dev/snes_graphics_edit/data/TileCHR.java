@@ -17,8 +17,9 @@ package com.github.sesquipedalian_dev.snes_graphics_edit.data;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
 import java.util.Scanner;
-import java.util.regex.MatchResult;
 
 /*
  * The smallest component of sprite / background tile data in SNES. These 8x8 'character data' can make up
@@ -31,20 +32,126 @@ public class TileCHR {
     // implied from size of values in colorSelected?  probably better to truncate if color is too big,
     // or perhaps mod by the depth
     protected int bitDepth;
-    protected int colorSelected[][];
+
+    // the tile is stored in the same planar format the SNES uses in VRAM; bit planes are interleaved in pairs,
+    // one byte per plane per row (e.g. 4bpp = rows of planes 0/1, then rows of planes 2/3).  The bytes may be
+    // our own or a window into a bigger block of tile memory (see TileMemory).
+    protected byte planar[];
+    protected int offset;
+
+    // the tile memory we're a view into, if any; told when we change
+    private final TileMemory owner;
 
     // SNES tiles are 8x8
     public static final int TILE_DIM = 8;
     public TileCHR(int bitDepth) {
+        this(bitDepth, new byte[bytesPerTile(bitDepth)], 0, null);
+    }
+
+    // view of a tile living at 'offset' in some bigger block of planar data
+    TileCHR(int bitDepth, byte[] planar, int offset, TileMemory owner) {
         this.bitDepth = bitDepth;
-        this.colorSelected = new int[TILE_DIM][TILE_DIM];
+        this.planar = planar;
+        this.offset = offset;
+        this.owner = owner;
+    }
+
+    // views write with their owner's write lock held, so other threads never snapshot half a tile.  Pair with
+    // unlock(stamp) in a finally once the pixels are in, then changed() after
+    private long lockForWrite() {
+        return (owner != null) ? owner.getLock().writeLock() : 0;
+    }
+
+    // marks the tile changed in the owner (new version, dedupe index) and lets go of the lock
+    private void unlock(long stamp) {
+        if(owner != null) {
+            try {
+                owner.tilesChanged(offset / bytesPerTile(bitDepth), 1);
+            } finally {
+                owner.getLock().unlockWrite(stamp);
+            }
+        }
+    }
+
+    private void changed() {
+        if(owner != null) {
+            owner.changed();
+        }
+    }
+
+    // how many bytes of planar data a tile takes up at the given bit depth
+    public static int bytesPerTile(int bitDepth) {
+        return TILE_DIM * bitDepth;
+    }
+
+    public int getBitDepth() {
+        return bitDepth;
     }
 
     public int getColorSelected(int x, int y) {
         if(x >= TILE_DIM || y >= TILE_DIM || x < 0 || y < 0) {
             throw new IndexOutOfBoundsException("Pick a position within 0 < POSITION < TILE_DIM: " + TILE_DIM + "\n");
         }
-        return colorSelected[x][y];
+
+        return readPixel(planar, offset, bitDepth, x, y);
+    }
+
+    // palette index of pixel x / y of the planar tile at 'offset'; no bounds checks
+    static int readPixel(byte[] planar, int offset, int bitDepth, int x, int y) {
+        // the leftmost pixel is the high bit of each plane's byte
+        int shift = TILE_DIM - 1 - y;
+        int color = 0;
+        for(int plane = 0; plane < bitDepth; ++plane) {
+            color |= ((planar[offset + PlanarCodec.planeByteIndex(bitDepth, x, plane)] >> shift) & 1) << plane;
+        }
+        return color;
+    }
+
+    // set pixel x / y of the planar tile at 'offset' to color, which must already fit the bit depth.  no bounds
+    // checks and no change notification
+    static void writePixel(byte[] planar, int offset, int bitDepth, int x, int y, int color) {
+        int mask = 1 << (TILE_DIM - 1 - y);
+        for(int plane = 0; plane < bitDepth; ++plane) {
+            int i = offset + PlanarCodec.planeByteIndex(bitDepth, x, plane);
+            if((color & (1 << plane)) != 0) {
+                planar[i] |= mask;
+            } else {
+                planar[i] &= ~mask;
+            }
+        }
+    }
+
+    // decode all the pixels of row x into out[outOffset] .. out[outOffset + TILE_DIM - 1]
+    public void getRowColors(int x, int[] out, int outOffset) {
+        if(x >= TILE_DIM || x < 0) {
+            throw new IndexOutOfBoundsException("Pick a position within 0 < POSITION < TILE_DIM: " + TILE_DIM + "\n");
+        }
+        decodeRow(planar, offset, bitDepth, x, out, outOffset);
+    }
+
+    // decode row x of the planar tile at 'offset' in 'planar'; for renderers working straight off tile memory
+    public static void decodeRow(byte[] planar, int offset, int bitDepth, int x, int[] out, int outOffset) {
+        long row = PlanarCodec.decodeRow(planar, offset, bitDepth, x);
+        for(int y = 0; y < TILE_DIM; ++y) {
+            out[outOffset + y] = (int) (row >>> (8 * y)) & 0xFF;
+        }
+    }
+
+    // all the pixels of the tile as palette indices, row major, into out[outOffset] .. out[outOffset + 63]
+    public void getPixels(byte[] out, int outOffset) {
+        PlanarCodec.decodeTile(planar, offset, bitDepth, out, outOffset);
+    }
+
+    // replace every pixel of the tile at once from palette indices laid out as in getPixels.  colors are masked
+    // down to the bit depth
+    public void setPixels(byte[] in, int inOffset) {
+        long stamp = lockForWrite();
+        try {
+            PlanarCodec.encodeTile(in, inOffset, bitDepth, planar, offset);
+        } finally {
+            unlock(stamp);
+        }
+        changed();
     }
 
     // set a specified pixel in this tile.  color is modded if it exceeds the amount allowed by bit depth.
@@ -54,95 +161,51 @@ public class TileCHR {
             throw new IndexOutOfBoundsException("Pick a position within 0 < POSITION < TILE_DIM: " + TILE_DIM + "\n");
         }
         int trueColor = (color) % (1 << (bitDepth));
-        colorSelected[x][y] = trueColor;
+
+        long stamp = lockForWrite();
+        try {
+            writePixel(planar, offset, bitDepth, x, y, trueColor);
+        } finally {
+            unlock(stamp);
+        }
+        changed();
         return trueColor;
     }
 
+    // copy the pixels of another tile of the same bit depth into this one
+    public void copyFrom(TileCHR other) {
+        if(other.bitDepth != bitDepth) {
+            throw new IllegalArgumentException("Can't copy a " + other.bitDepth + " bpp tile into a " + bitDepth + " bpp tile");
+        }
+        long stamp = lockForWrite();
+        try {
+            System.arraycopy(other.planar, other.offset, planar, offset, bytesPerTile(bitDepth));
+        } finally {
+            unlock(stamp);
+        }
+        changed();
+    }
+
     public void serializeToStream(PrintStream out) {
-        out.print(".db ");
-        for (float planeGroup = 0; planeGroup < (float) bitDepth / 2; ++planeGroup) {
-            int startingPlaneForGroup = ((int) planeGroup) * 2;
-            for (int x = 0; x < TILE_DIM; ++x) {
-                for (int plane = startingPlaneForGroup; plane < Math.min(bitDepth, startingPlaneForGroup + 2); ++plane) {
-                    byte accum = 0;
-                    for (int y = 0; y < TILE_DIM; ++y) {
-                        int shiftBack = TILE_DIM - y - 1 - plane;
-                        if (shiftBack < 0) {
-                            accum |= (colorSelected[x][y] & (1 << plane)) >> -shiftBack;
-                        } else {
-                            accum |= (colorSelected[x][y] & (1 << plane)) << shiftBack;
-                        }
-                    }
-
-                    out.print(String.format("$%02X", accum));
-                    if (!((plane == (bitDepth - 1)) && (x == (TILE_DIM - 1)))) {
-                        out.print(", ");
-                    }
-                }
-            }
+        // the bytes are already in the order the SNES wants them
+        try {
+            IncWriter w = new IncWriter(Channels.newChannel(out), IncWriter.LINE_BUFFER_SIZE);
+            w.writeTile(this);
+            w.flush();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
         }
-        out.print("\n");
     }
 
     public static TileCHR fromString(Scanner in, int bitDepth) throws IOException {
         TileCHR retVal = new TileCHR(bitDepth);
 
-        // build a regex, basically just looking for a number of bytes equal to
-        // TILE_DIM * bitDepth
-        StringBuilder regex = new StringBuilder();
-        regex.append("^.db ");
-        for(int x = 0; x < TILE_DIM; ++x) {
-            for (int plane = 0; plane < bitDepth; ++plane) {
-                regex.append("\\$([A-Fa-f0-9]{2})");
-                if(!((plane == (bitDepth - 1)) && (x == (TILE_DIM - 1)))) {
-                    regex.append(",\\s*");
-                }
-            }
-        }
-
-        in.findInLine(regex.toString());
-        MatchResult r = in.match();
-
-        // get back the rows
-        for (float planeGroup = 0; planeGroup < (float) bitDepth / 2; ++planeGroup) {
-            int startingPlaneForGroup = ((int) planeGroup) * 2;
-
-            for (int x = 0; x < TILE_DIM; ++x) {
-
-                // get all the planes for this row so we can calculate the color values at each y
-                int[] planes = new int[Math.min(bitDepth, 2)];
-                for (int plane = 0; plane < Math.min(bitDepth, 2); ++plane) {
-                    int groupIndex = (((int) planeGroup) * TILE_DIM * 2) + // skip all the row data for earlier plane groups
-                            (x * Math.min(bitDepth, 2)) + // skip 2 bytes for each row (unless in one-bit color depth
-                            plane + // first or second byte?
-                            1 // 1-indexed groups
-                            ;
-                    String bString = r.group(groupIndex);
-                    int b = Integer.parseInt(bString, 16);
-                    planes[plane] = b;
-                }
-
-                for (int y = 0; y < TILE_DIM; ++y) {
-                    byte accum = 0;
-                    for (int plane = startingPlaneForGroup; plane < Math.min(bitDepth, startingPlaneForGroup + 2); ++plane) {
-                        // bit at yMask of plane has one of our bits
-                        int yMask = 1 << (TILE_DIM - 1 - y);
-                        // move the bit back to position in the actual color value (based on which plane we parsing)
-                        int shiftBackToPlane = TILE_DIM - 1 - y - plane;
-                        int addToAccum;
-                        if (shiftBackToPlane > 0) {
-                            addToAccum = (planes[plane % 2] & yMask) >> shiftBackToPlane;
-                        } else {
-                            addToAccum = (planes[plane % 2] & yMask) << -shiftBackToPlane;
-                        }
-                        accum |= addToAccum;
-                    }
-
-                    // store the color we found; the method format takes 1-indexed values instead
-                    int currentColor = retVal.getColorSelected(x, y);
-                    retVal.selectColor(x, y, accum | currentColor);
-                }
-            }
+        // basically just looking for a number of bytes equal to TILE_DIM * bitDepth; they're stored
+        // in the same planar order they're written in
+        int size = bytesPerTile(bitDepth);
+        int count = IncReader.parseDbLine(in.nextLine(), retVal.planar, 0, size);
+        if(count != size) {
+            throw new IOException("Expected " + size + " bytes of tile data, found " + count);
         }
 
         return retVal;
@@ -0,0 +1,304 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * TileDedupeIndex
+ * Groups the tiles in tile memory that are the same once flips are taken into account - a tilemap can show any
+ * tile flipped horizontally and / or vertically, so those copies are wasted VRAM.  Each tile is filed under a
+ * canonical key (whichever of its 4 flips has the smallest bytes), so re-filing a tile after an edit is the same
+ * small amount of work however big the sheet is.  Kept up to date by TileMemory, which marks tiles stale as
+ * their pixels change; they're re-filed the next time the index is asked anything, so a stroke painting lots of
+ * pixels re-files each tile it touched once.  FX thread only.
+ *
+ * Blank tiles are just unused space, so they're never counted or shown as duplicates of each other (deduplicating
+ * still packs them down along with everything else).
+ */
+public class TileDedupeIndex {
+    public static final int FLIP_H = 1;
+    public static final int FLIP_V = 2;
+
+    // bits of each byte in reverse order, for flipping a row horizontally
+    private static final byte[] REVERSE = new byte[256];
+    static {
+        for(int b = 0; b < 256; ++b) {
+            REVERSE[b] = (byte) (Integer.reverse(b) >>> 24);
+        }
+    }
+
+    // planar bytes of the canonical flip of a tile
+    private static class Key {
+        final byte[] bytes;
+        // only ever change for the probe key, after its bytes are overwritten
+        int hash;
+        boolean blank;
+
+        Key(byte[] bytes) {
+            this.bytes = bytes;
+            rehash();
+        }
+
+        void rehash() {
+            this.hash = Arrays.hashCode(bytes);
+            this.blank = isBlank(bytes);
+        }
+
+        private static boolean isBlank(byte[] bytes) {
+            for(byte b : bytes) {
+                if(b != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Key) && ((Key) o).hash == hash && Arrays.equals(((Key) o).bytes, bytes);
+        }
+    }
+
+    // the tiles sharing a key, and the key itself (with bytes of its own)
+    private static class Group {
+        final Key key;
+        final Set<Integer> tiles = new HashSet<>();
+
+        Group(Key key) {
+            this.key = key;
+        }
+    }
+
+    private final TileMemory tiles;
+    private final int bytesPerTile;
+
+    // per tile: its key, and which flip of the tile the key is (FLIP_ bits)
+    private final Key[] keys;
+    private final byte[] flips;
+    private int indexedTiles = 0;
+
+    private final Map<Key, Group> groups = new HashMap<>();
+    private int duplicateGroups = 0;
+    private int redundantTiles = 0;
+
+    // tiles whose pixels changed since they were last filed, each listed once
+    private final boolean[] stale;
+    private final int[] staleTiles;
+    private int staleCount = 0;
+
+    // reused while working out a tile's key; the probe looks up best without copying it, so re-filing a tile into
+    // a group that's already there doesn't allocate a key
+    private final byte[] candidate;
+    private final byte[] best;
+    private final Key probe;
+
+    TileDedupeIndex(TileMemory tiles) {
+        this.tiles = tiles;
+        this.bytesPerTile = TileCHR.bytesPerTile(tiles.getBitDepth());
+        this.keys = new Key[tiles.maxTiles()];
+        this.flips = new byte[tiles.maxTiles()];
+        this.stale = new boolean[tiles.maxTiles()];
+        this.staleTiles = new int[tiles.maxTiles()];
+        this.candidate = new byte[bytesPerTile];
+        this.best = new byte[bytesPerTile];
+        this.probe = new Key(best);
+        resize();
+    }
+
+    // groups with more than one tile in them, not counting blank tiles
+    public int getDuplicateGroupCount() {
+        refresh();
+        return duplicateGroups;
+    }
+
+    // how many tiles are copies of an earlier one, not counting blank tiles
+    public int getRedundantTileCount() {
+        refresh();
+        return redundantTiles;
+    }
+
+    // true if some other tile is the same as this one, flipped or not.  Blank tiles don't count
+    public boolean isDuplicate(int tile) {
+        refresh();
+        Key k = (tile < indexedTiles) ? keys[tile] : null;
+        return k != null && !k.blank && groups.get(k).tiles.size() > 1;
+    }
+
+    // every group of tiles with more than one member, each sorted by tile number.  Blank tiles don't count
+    public List<int[]> getDuplicateGroups() {
+        refresh();
+        List<int[]> retVal = new ArrayList<>();
+        for(Group group : groups.values()) {
+            if(!group.key.blank && group.tiles.size() > 1) {
+                int[] members = group.tiles.stream().mapToInt(Integer::intValue).sorted().toArray();
+                retVal.add(members);
+            }
+        }
+        retVal.sort((a, b) -> Integer.compare(a[0], b[0]));
+        return retVal;
+    }
+
+    // which flip of the tile its group key is; two tiles in a group differ by (flip of one ^ flip of the other)
+    public int getFlip(int tile) {
+        refresh();
+        return flips[tile];
+    }
+
+    boolean sameGroup(int tileA, int tileB) {
+        refresh();
+        return keys[tileA] != null && keys[tileA].equals(keys[tileB]);
+    }
+
+    // move the first tile of each group down to the front of tile memory, in order, and drop the rest.  Returns
+    // the new number of tiles, with remap filled in as described in TileMemory.deduplicate.  The index is stale
+    // afterwards
+    int compact(int[] remap) {
+        refresh();
+        byte[] data = tiles.getData();
+        Map<Key, Integer> kept = new HashMap<>();
+        int next = 0;
+        for(int tile = 0; tile < indexedTiles; ++tile) {
+            Integer first = kept.get(keys[tile]);
+            if(first == null) {
+                kept.put(keys[tile], tile);
+                // never overwrites a tile we haven't got to yet, since next <= tile
+                System.arraycopy(data, tile * bytesPerTile, data, next * bytesPerTile, bytesPerTile);
+                remap[tile] = next++;
+            } else {
+                int flip = flips[tile] ^ flips[first];
+                remap[tile] = remap[first] |
+                        (((flip & FLIP_H) != 0) ? Tilemap.FLIP_H : 0) |
+                        (((flip & FLIP_V) != 0) ? Tilemap.FLIP_V : 0);
+            }
+        }
+        return next;
+    }
+
+    // note a tile whose pixels changed; it's re-filed before the next question
+    void update(int tile) {
+        if(tile < indexedTiles && !stale[tile]) {
+            stale[tile] = true;
+            staleTiles[staleCount++] = tile;
+        }
+    }
+
+    private void refresh() {
+        for(int i = 0; i < staleCount; ++i) {
+            int tile = staleTiles[i];
+            stale[tile] = false;
+            if(tile < indexedTiles) {
+                remove(tile);
+                add(tile);
+            }
+        }
+        staleCount = 0;
+    }
+
+    // catch up with tile rows being added / removed
+    void resize() {
+        refresh();
+        int count = tiles.getTileRows() * EditingData.TILES_PER_ROW;
+        while(indexedTiles > count) {
+            remove(--indexedTiles);
+        }
+        while(indexedTiles < count) {
+            add(indexedTiles++);
+        }
+    }
+
+    private void add(int tile) {
+        byte[] data = tiles.getData();
+        int offset = tile * bytesPerTile;
+
+        // try all 4 flips, keep the smallest
+        flipped(data, offset, 0, best);
+        int bestFlip = 0;
+        for(int flip = 1; flip < 4; ++flip) {
+            flipped(data, offset, flip, candidate);
+            if(Arrays.compareUnsigned(candidate, best) < 0) {
+                System.arraycopy(candidate, 0, best, 0, bytesPerTile);
+                bestFlip = flip;
+            }
+        }
+
+        // a group that's already there has a key of its own we can share; only a new one needs the bytes copied
+        probe.rehash();
+        Group group = groups.get(probe);
+        if(group == null) {
+            group = new Group(new Key(best.clone()));
+            groups.put(group.key, group);
+        }
+        Key k = group.key;
+        keys[tile] = k;
+        flips[tile] = (byte) bestFlip;
+
+        group.tiles.add(tile);
+        if(!k.blank) {
+            if(group.tiles.size() == 2) {
+                duplicateGroups++;
+            }
+            if(group.tiles.size() > 1) {
+                redundantTiles++;
+            }
+        }
+    }
+
+    private void remove(int tile) {
+        Key k = keys[tile];
+        if(k == null) {
+            return;
+        }
+        keys[tile] = null;
+
+        Group group = groups.get(k);
+        if(!k.blank) {
+            if(group.tiles.size() > 1) {
+                redundantTiles--;
+            }
+            if(group.tiles.size() == 2) {
+                duplicateGroups--;
+            }
+        }
+        group.tiles.remove(tile);
+        if(group.tiles.isEmpty()) {
+            groups.remove(k);
+        }
+    }
+
+    // the tile's planar bytes with the given FLIP_ bits applied, into out
+    private void flipped(byte[] data, int offset, int flip, byte[] out) {
+        int bitDepth = tiles.getBitDepth();
+        for(int x = 0; x < TileCHR.TILE_DIM; ++x) {
+            int fromRow = ((flip & FLIP_V) != 0) ? (TileCHR.TILE_DIM - 1 - x) : x;
+            for(int plane = 0; plane < bitDepth; ++plane) {
+                int b = data[offset + PlanarCodec.planeByteIndex(bitDepth, fromRow, plane)] & 0xFF;
+                out[PlanarCodec.planeByteIndex(bitDepth, x, plane)] = ((flip & FLIP_H) != 0) ? REVERSE[b] : (byte) b;
+            }
+        }
+    }
+}
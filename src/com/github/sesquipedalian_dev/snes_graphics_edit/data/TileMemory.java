@@ -0,0 +1,285 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * TileMemory
+ * Backing store for all the CHR data we're editing.  Tiles are kept back to back in one block of bytes, in the
+ * same planar format the SNES expects in VRAM, so the block can be written out as-is.  TileCHRs handed out
+ * by this class are views over the block - editing them edits the tile memory.
+ * None of the methods here lock; TileCHR views take the write lock of the data they belong to (see EditingData).
+ */
+public class TileMemory {
+    private final int bitDepth;
+    private final int bytesPerTile;
+    private final int tilesPerRow;
+    private final int maxTileRows;
+
+    // sized for the max rows up front so views we hand out never point at a stale array
+    private final byte[] data;
+    private int tileRows = 0;
+
+    // built the first time someone asks for it, then kept up to date tile by tile
+    private TileDedupeIndex dedupeIndex;
+
+    // per tile, changes whenever its pixels do; see VersionStamp.  Every tile starts out blank, so they can all
+    // share a stamp to begin with
+    private final long[] tileVersions;
+
+    // guards the data this memory is part of; edits through TileCHR views take its write lock
+    private final StampedLock lock;
+
+    // the data this memory is part of, if any; told about edits made through TileCHR views
+    EditingData owner;
+
+    public TileMemory(int bitDepth, int tilesPerRow, int maxTileRows) {
+        this(bitDepth, tilesPerRow, maxTileRows, new StampedLock());
+    }
+
+    TileMemory(int bitDepth, int tilesPerRow, int maxTileRows, StampedLock lock) {
+        this.bitDepth = bitDepth;
+        this.bytesPerTile = TileCHR.bytesPerTile(bitDepth);
+        this.tilesPerRow = tilesPerRow;
+        this.maxTileRows = maxTileRows;
+        this.data = new byte[bytesPerTile * tilesPerRow * maxTileRows];
+        this.tileVersions = new long[tilesPerRow * maxTileRows];
+        Arrays.fill(tileVersions, VersionStamp.next());
+        this.lock = lock;
+    }
+
+    // an independent copy of the tiles
+    public TileMemory copy() {
+        TileMemory copy = new TileMemory(bitDepth, tilesPerRow, maxTileRows);
+        copyTo(copy);
+        return copy;
+    }
+
+    // overwrite another memory of the same shape with our tiles.  Doesn't lock anything, so reading from a
+    // memory that's being edited can give a torn copy; EditingData.snapshot checks for that
+    void copyTo(TileMemory copy) {
+        int rows = tileRows;
+        System.arraycopy(data, 0, copy.data, 0, rows * bytesPerRow());
+        System.arraycopy(tileVersions, 0, copy.tileVersions, 0, tileVersions.length);
+        copy.tileRows = rows;
+        copy.dedupeIndex = null;
+    }
+
+    StampedLock getLock() {
+        return lock;
+    }
+
+    // let the owning data know something changed, if we have one
+    void changed() {
+        if(owner != null) {
+            owner.changed();
+        }
+    }
+
+    public int getBitDepth() {
+        return bitDepth;
+    }
+
+    public int getTileRows() {
+        return tileRows;
+    }
+
+    public int getTilesPerRow() {
+        return tilesPerRow;
+    }
+
+    public int maxTiles() {
+        return maxTileRows * tilesPerRow;
+    }
+
+    public int bytesPerRow() {
+        return bytesPerTile * tilesPerRow;
+    }
+
+    // number of bytes actually holding tiles, starting from the beginning of getData()
+    public int usedBytes() {
+        return tileRows * bytesPerRow();
+    }
+
+    // the raw planar bytes; only the first usedBytes() are meaningful.  Anything writing to them directly should
+    // call tilesChanged afterwards
+    public byte[] getData() {
+        return data;
+    }
+
+    // for tiles whose pixels were changed: gives them new versions and tells the dedupe index (if there is one)
+    public void tilesChanged(int firstTile, int count) {
+        for(int i = 0; i < count; ++i) {
+            tileChanged(firstTile + i);
+        }
+    }
+
+    private void tileChanged(int tile) {
+        tileVersions[tile] = VersionStamp.next();
+        if(dedupeIndex != null) {
+            dedupeIndex.update(tile);
+        }
+    }
+
+    // anything drawn from a tile at this version still looks right
+    public long getTileVersion(int tile) {
+        return tileVersions[tile];
+    }
+
+    public TileDedupeIndex getDedupeIndex() {
+        if(dedupeIndex == null) {
+            dedupeIndex = new TileDedupeIndex(this);
+        }
+        return dedupeIndex;
+    }
+
+    // add enough rows to the end for count tiles and fill them in from chunky pixels (see PlanarCodec).
+    // Returns the number of the first tile added, or -1 if there isn't room for them all
+    public int appendTiles(byte[] chunky, int count) {
+        int rows = (count + tilesPerRow - 1) / tilesPerRow;
+        if(tileRows + rows > maxTileRows) {
+            return -1;
+        }
+
+        int first = tileRows * tilesPerRow;
+        for(int i = 0; i < rows; ++i) {
+            addTileRow();
+        }
+        PlanarCodec.encodeBankParallel(chunky, 0, count, bitDepth, data, first * bytesPerTile);
+        tilesChanged(first, count);
+        return first;
+    }
+
+    // swap all the tiles for length bytes of planar data, e.g. from a .chr file.  A partial row at the end is
+    // padded with blank tiles.  Returns false (changing nothing) if it's more than fits
+    public boolean replaceTiles(byte[] planar, int length) {
+        return replaceTiles(ByteBuffer.wrap(planar, 0, length));
+    }
+
+    // same, taking everything remaining in the buffer
+    public boolean replaceTiles(ByteBuffer planar) {
+        int length = planar.remaining();
+        int rows = (length + bytesPerRow() - 1) / bytesPerRow();
+        if(rows > maxTileRows) {
+            return false;
+        }
+
+        planar.get(data, 0, length);
+        Arrays.fill(data, length, rows * bytesPerRow(), (byte) 0);
+        tileRows = rows;
+        dedupeIndex = null;
+        tilesChanged(0, rows * tilesPerRow);
+        return true;
+    }
+
+    // drop every tile that's a copy of an earlier one (allowing for flips) and pack the rest down to the front,
+    // trimming off rows that end up empty.  Returns, for each old tile number, the tilemap entry that shows the
+    // same pixels now: the new tile number plus Tilemap.FLIP_H / FLIP_V
+    public int[] deduplicate() {
+        int[] remap = new int[tileRows * tilesPerRow];
+        int tiles = getDedupeIndex().compact(remap);
+
+        // blank out what's left of the last row
+        int rows = (tiles + tilesPerRow - 1) / tilesPerRow;
+        Arrays.fill(data, tiles * bytesPerTile, usedBytes(), (byte) 0);
+        for(int tile = 0; tile < tileRows * tilesPerRow; ++tile) {
+            tileVersions[tile] = VersionStamp.next();
+        }
+        tileRows = rows;
+
+        dedupeIndex = new TileDedupeIndex(this);
+        return remap;
+    }
+
+    // add a blank row of tiles at the end. returns false if we're out of room
+    public boolean addTileRow() {
+        if(tileRows + 1 > maxTileRows) {
+            return false;
+        }
+
+        // rows that got subtracted earlier may have left data behind
+        int start = usedBytes();
+        Arrays.fill(data, start, start + bytesPerRow(), (byte) 0);
+        long blank = VersionStamp.next();
+        Arrays.fill(tileVersions, tileRows * tilesPerRow, (tileRows + 1) * tilesPerRow, blank);
+        tileRows++;
+        if(dedupeIndex != null) {
+            dedupeIndex.resize();
+        }
+        return true;
+    }
+
+    public void subtractTileRow() {
+        if(tileRows > 0) {
+            tileRows--;
+            if(dedupeIndex != null) {
+                dedupeIndex.resize();
+            }
+        }
+    }
+
+    // 0-indexed
+    public int tileOffset(int x, int y) {
+        if(x < 0 || x >= tileRows) {
+            throw new IndexOutOfBoundsException("X between [0, " + tileRows + ")");
+        }
+        if(y < 0 || y >= tilesPerRow) {
+            throw new IndexOutOfBoundsException("Y between [0, " + tilesPerRow + ")");
+        }
+        return (x * tilesPerRow + y) * bytesPerTile;
+    }
+
+    // a single number for a pixel anywhere in tile memory: tile number (row major) * 64 + x * 8 + y within
+    // the tile.  Handy for remembering edits compactly.  0-indexed
+    public int pixelIndex(int tileX, int tileY, int x, int y) {
+        if(x < 0 || x >= TileCHR.TILE_DIM || y < 0 || y >= TileCHR.TILE_DIM) {
+            throw new IndexOutOfBoundsException("pixel x / y between [0, " + TileCHR.TILE_DIM + ")");
+        }
+        return (tileOffset(tileX, tileY) / bytesPerTile * PlanarCodec.PIXELS_PER_TILE) + (x * TileCHR.TILE_DIM) + y;
+    }
+
+    public int getPixel(int pixelIndex) {
+        int tile = pixelIndex / PlanarCodec.PIXELS_PER_TILE;
+        int inTile = pixelIndex % PlanarCodec.PIXELS_PER_TILE;
+        return TileCHR.readPixel(data, tile * bytesPerTile, bitDepth, inTile / TileCHR.TILE_DIM, inTile % TileCHR.TILE_DIM);
+    }
+
+    // doesn't tell anyone about the change; callers making a batch of edits should fire once when done
+    public void setPixel(int pixelIndex, int color) {
+        int tile = pixelIndex / PlanarCodec.PIXELS_PER_TILE;
+        int inTile = pixelIndex % PlanarCodec.PIXELS_PER_TILE;
+        TileCHR.writePixel(data, tile * bytesPerTile, bitDepth, inTile / TileCHR.TILE_DIM, inTile % TileCHR.TILE_DIM, color & ((1 << bitDepth) - 1));
+        tileChanged(tile);
+    }
+
+    // 0-indexed
+    public TileCHR getTile(int x, int y) {
+        return new TileCHR(bitDepth, data, tileOffset(x, y), this);
+    }
+
+    // 0-indexed; copies the pixels of t into the tile memory
+    public void setTile(int x, int y, TileCHR t) {
+        if(t.bitDepth != bitDepth) {
+            throw new IllegalArgumentException("Can't copy a " + t.bitDepth + " bpp tile into a " + bitDepth + " bpp tile");
+        }
+        int offset = tileOffset(x, y);
+        System.arraycopy(t.planar, t.offset, data, offset, bytesPerTile);
+        tileChanged(offset / bytesPerTile);
+    }
+}
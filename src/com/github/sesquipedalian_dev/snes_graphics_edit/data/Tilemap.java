@@ -0,0 +1,240 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.util.Arrays;
+
+/**
+ * Tilemap
+ * A background map: a square of 32x32 or 64x64 entries saying which tile goes where.  Each entry is the 16 bit
+ * word the SNES reads out of VRAM, vhopppcc cccccccc: flip bits, priority, palette, and tile number.  Entries are
+ * kept in VRAM order too, so they can be written straight out - a 64x64 map is four 32x32 screens one after the
+ * other (top left, top right, bottom left, bottom right).
+ */
+public class Tilemap {
+    public static final int SCREEN_SIZE = 32;
+
+    public static final int TILE_MASK = 0x3FF;
+    public static final int PALETTE_SHIFT = 10;
+    public static final int PALETTE_MASK = 0x7;
+    public static final int PRIORITY = 1 << 13;
+    public static final int FLIP_H = 1 << 14;
+    public static final int FLIP_V = 1 << 15;
+
+    private final int size;
+    private final short[] entries;
+
+    // changes whenever an entry does; see VersionStamp
+    private long version = VersionStamp.next();
+
+    // the data we belong to, if any; see EditingData.setTilemap.  Edits take its write lock and tell it when
+    // they're done
+    EditingData owner;
+
+    // size is how many entries along each side, 32 or 64
+    public Tilemap(int size) {
+        if(size != SCREEN_SIZE && size != SCREEN_SIZE * 2) {
+            throw new IllegalArgumentException("tilemaps are 32x32 or 64x64, not " + size);
+        }
+        this.size = size;
+        this.entries = new short[size * size];
+    }
+
+    public static int entry(int tile, int palette, boolean priority, boolean flipH, boolean flipV) {
+        return (tile & TILE_MASK) |
+                ((palette & PALETTE_MASK) << PALETTE_SHIFT) |
+                (priority ? PRIORITY : 0) |
+                (flipH ? FLIP_H : 0) |
+                (flipV ? FLIP_V : 0);
+    }
+
+    public static int tileOf(int entry) {
+        return entry & TILE_MASK;
+    }
+
+    public static int paletteOf(int entry) {
+        return (entry >> PALETTE_SHIFT) & PALETTE_MASK;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // an independent copy of the entries, at the same version
+    public Tilemap copy() {
+        Tilemap copy = new Tilemap(size);
+        System.arraycopy(entries, 0, copy.entries, 0, entries.length);
+        copy.version = version;
+        return copy;
+    }
+
+    // where the entry for a map row / column sits in VRAM order
+    public int entryIndex(int row, int col) {
+        int screensAcross = size / SCREEN_SIZE;
+        int screen = ((row / SCREEN_SIZE) * screensAcross) + (col / SCREEN_SIZE);
+        return (screen * SCREEN_SIZE * SCREEN_SIZE) + ((row % SCREEN_SIZE) * SCREEN_SIZE) + (col % SCREEN_SIZE);
+    }
+
+    public int getEntry(int row, int col) {
+        return entries[entryIndex(row, col)] & 0xFFFF;
+    }
+
+    public void setEntry(int row, int col, int entry) {
+        int index = entryIndex(row, col);
+        if((entries[index] & 0xFFFF) != entry) {
+            EditingData o = owner;
+            long stamp = lockForWrite(o);
+            try {
+                entries[index] = (short) entry;
+                version = VersionStamp.next();
+            } finally {
+                unlock(o, stamp);
+            }
+            changed(o);
+        }
+    }
+
+    // set a block of entries 'width' wide with its top left at row / col, given one row of the block after another.
+    // Entries of -1, and anything past the edge of the map, are left as they are
+    public void setEntries(int row, int col, int width, int[] block) {
+        EditingData o = owner;
+        long stamp = lockForWrite(o);
+        try {
+            for(int i = 0; i < block.length; ++i) {
+                int r = row + (i / width);
+                int c = col + (i % width);
+                if(block[i] >= 0 && r < size && c < size) {
+                    entries[entryIndex(r, c)] = (short) block[i];
+                }
+            }
+            version = VersionStamp.next();
+        } finally {
+            unlock(o, stamp);
+        }
+        changed(o);
+    }
+
+    // point entries at tiles' new homes after TileMemory.deduplicate, given the remap it returned.  Flips in the
+    // remap are combined with the entry's own
+    public void remapTiles(int[] remap) {
+        EditingData o = owner;
+        long stamp = lockForWrite(o);
+        try {
+            for(int i = 0; i < entries.length; ++i) {
+                int entry = entries[i] & 0xFFFF;
+                int tile = tileOf(entry);
+                if(tile < remap.length) {
+                    int moved = remap[tile];
+                    entries[i] = (short) (((entry & ~TILE_MASK) | (moved & TILE_MASK)) ^ (moved & (FLIP_H | FLIP_V)));
+                }
+            }
+            version = VersionStamp.next();
+        } finally {
+            unlock(o, stamp);
+        }
+        changed(o);
+    }
+
+    // give each entry the palette its tile is drawn with now, e.g. after BitDepthConverter; palettes[tile] for each
+    // tile.  Palette numbers too big for an entry are left alone
+    public void repaletteTiles(int[] palettes) {
+        EditingData o = owner;
+        long stamp = lockForWrite(o);
+        try {
+            for(int i = 0; i < entries.length; ++i) {
+                int entry = entries[i] & 0xFFFF;
+                int tile = tileOf(entry);
+                if(tile < palettes.length && palettes[tile] <= PALETTE_MASK) {
+                    entries[i] = (short) ((entry & ~(PALETTE_MASK << PALETTE_SHIFT)) | (palettes[tile] << PALETTE_SHIFT));
+                }
+            }
+            version = VersionStamp.next();
+        } finally {
+            unlock(o, stamp);
+        }
+        changed(o);
+    }
+
+    // edits hold the owner's write lock (read once into o, in case we're moved to other data part way through)
+    private static long lockForWrite(EditingData o) {
+        return (o != null) ? o.getLock().writeLock() : 0;
+    }
+
+    private static void unlock(EditingData o, long stamp) {
+        if(o != null) {
+            o.getLock().unlockWrite(stamp);
+        }
+    }
+
+    private static void changed(EditingData o) {
+        if(o != null) {
+            o.changed();
+        }
+    }
+
+    // which palette each of the first tileCount tiles is drawn with: the palette of the first entry using it, or
+    // defaultPalette for tiles that aren't on the map (or if there's no map)
+    public static int[] palettesForTiles(Tilemap map, int tileCount, int defaultPalette) {
+        int[] palettes = new int[tileCount];
+        Arrays.fill(palettes, -1);
+        if(map != null) {
+            for(short e : map.entries) {
+                int tile = tileOf(e & 0xFFFF);
+                if(tile < tileCount && palettes[tile] < 0) {
+                    palettes[tile] = paletteOf(e & 0xFFFF);
+                }
+            }
+        }
+        for(int t = 0; t < tileCount; ++t) {
+            if(palettes[t] < 0) {
+                palettes[t] = defaultPalette;
+            }
+        }
+        return palettes;
+    }
+
+    // the entries as little endian words, the way they'd sit in VRAM
+    public byte[] toBytes() {
+        byte[] retVal = new byte[entries.length * 2];
+        for(int i = 0; i < entries.length; ++i) {
+            retVal[i * 2] = (byte) entries[i];
+            retVal[(i * 2) + 1] = (byte) (entries[i] >> 8);
+        }
+        return retVal;
+    }
+
+    // the map size comes from how many bytes there are: 2 KB for 32x32, 8 KB for 64x64
+    public static Tilemap fromBytes(byte[] data, int offset, int length) {
+        int size;
+        if(length == SCREEN_SIZE * SCREEN_SIZE * 2) {
+            size = SCREEN_SIZE;
+        } else if(length == SCREEN_SIZE * SCREEN_SIZE * 2 * 4) {
+            size = SCREEN_SIZE * 2;
+        } else {
+            throw new IllegalArgumentException(length + " bytes isn't a 32x32 or 64x64 tilemap");
+        }
+
+        Tilemap retVal = new Tilemap(size);
+        for(int i = 0; i < retVal.entries.length; ++i) {
+            retVal.entries[i] = (short) ((data[offset + (i * 2)] & 0xFF) | ((data[offset + (i * 2) + 1] & 0xFF) << 8));
+        }
+        return retVal;
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * VersionStamp
+ * Hands out version numbers for things that get drawn (tiles, palettes).  Every stamp is new across the whole
+ * program, so 'same stamp' means 'same contents' even between two documents, and anything cached against an
+ * old stamp just never gets asked for again.
+ */
+class VersionStamp {
+    private static final AtomicLong last = new AtomicLong();
+
+    static long next() {
+        return last.incrementAndGet();
+    }
+}
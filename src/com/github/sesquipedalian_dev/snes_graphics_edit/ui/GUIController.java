@@ -15,9 +15,20 @@
  */
 package com.github.sesquipedalian_dev.snes_graphics_edit.ui;
 
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.BinWriter;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.BitDepthConverter;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.CompressedChr;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditJournal;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.ImageImporter;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.IncReader;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.IncWriter;
 import com.github.sesquipedalian_dev.snes_graphics_edit.Main;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.Palette;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.PaletteOptimizer;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.ProjectFile;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileDedupeIndex;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.Tilemap;
 import javafx.animation.Animation;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
@@ -25,13 +36,20 @@ import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.control.*;
 import javafx.stage.FileChooser;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * GUIController
@@ -40,6 +58,27 @@ public class GUIController {
     public final FileChooser.ExtensionFilter SAVE_FILE_FILTER = new FileChooser.ExtensionFilter(
             "assembler include files", "*.inc"
     );
+    public final FileChooser.ExtensionFilter PROJECT_FILE_FILTER = new FileChooser.ExtensionFilter(
+            "binary project files", "*" + ProjectFile.EXTENSION
+    );
+    public final FileChooser.ExtensionFilter BINARY_FILE_FILTER = new FileChooser.ExtensionFilter(
+            "raw CHR data for .incbin", "*.chr"
+    );
+    public final FileChooser.ExtensionFilter LZ2_FILE_FILTER = new FileChooser.ExtensionFilter(
+            "LZ2 compressed CHR data", "*.bin"
+    );
+    public final FileChooser.ExtensionFilter RLE_FILE_FILTER = new FileChooser.ExtensionFilter(
+            "RLE compressed CHR data", "*.bin"
+    );
+    public final FileChooser.ExtensionFilter TILEMAP_FILE_FILTER = new FileChooser.ExtensionFilter(
+            "tilemap include files", "*.inc"
+    );
+    public final FileChooser.ExtensionFilter TILEMAP_BINARY_FILTER = new FileChooser.ExtensionFilter(
+            "raw tilemap data for .incbin", "*.map"
+    );
+    public final FileChooser.ExtensionFilter IMAGE_FILE_FILTER = new FileChooser.ExtensionFilter(
+            "images", "*.png", "*.gif", "*.bmp"
+    );
 
     // singleton pattern
     private static GUIController instance;
@@ -48,14 +87,21 @@ public class GUIController {
     }
     public GUIController() {
         instance = this;
+        saveExecutor.allowCoreThreadTimeOut(true);
     }
 
-    // when bit depth selector changed, start new editing data
+    // saves are written one at a time, in order, off the FX thread.  The worker isn't a daemon thread, so a save
+    // still going when the window closes gets to finish; it goes away by itself once idle
+    private final ThreadPoolExecutor saveExecutor = new ThreadPoolExecutor(
+        1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>()
+    );
+
+    // when bit depth selector changed, convert what's being edited to the new depth
     class BitDepthListener implements ChangeListener<Number> {
         @Override
         public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
             if(enabled) {
-                newEditingData(newValue.intValue());
+                convertEditingData(newValue.intValue());
             }
         }
 
@@ -76,10 +122,16 @@ public class GUIController {
     @FXML
     public Canvas tileMemCanvas;
     @FXML
+    public ScrollBar tileMemScroll;
+    @FXML
     public Button tileMemMinusBtn;
     @FXML
     public Button tileMemPlusBtn;
 
+    private TileMemCanvasController tmcc;
+    private PaletteCanvasController pcc;
+    private TilemapWindow tilemapWindow;
+
     public void initialize() {
         System.out.println("Initializing GUIController");
 
@@ -99,8 +151,8 @@ public class GUIController {
         tileZoomSm.select(3);
 
         // set up other GUI controllers
-        PaletteCanvasController pcc = new PaletteCanvasController(paletteCanvas, colorPicker);
-        TileMemCanvasController tmcc = new TileMemCanvasController(tileMemCanvas, pcc, tileMemMinusBtn, tileMemPlusBtn, zoomSel);
+        pcc = new PaletteCanvasController(paletteCanvas, colorPicker);
+        tmcc = new TileMemCanvasController(tileMemCanvas, tileMemScroll, pcc, tileMemMinusBtn, tileMemPlusBtn, zoomSel);
         new TileCharacterCanvasController(zoomSel, tileChrCanvas, pcc, tmcc);
     }
 
@@ -124,15 +176,7 @@ public class GUIController {
         if(ed != null ) {
             String fn = ed.getFilename();
             if (fn != null && !fn.equals("")) {
-                try {
-                    ed.toFile(fn);
-                } catch (IOException e) {
-                    Alert a = new Alert(Alert.AlertType.ERROR);
-                    a.setTitle("ERROR!");
-                    a.setHeaderText(String.format("Error saving file: %s", fn));
-                    a.setContentText(e.toString());
-                    a.showAndWait();
-                }
+                saveInBackground(ed, fn, () -> {});
             }
         }
     }
@@ -144,77 +188,540 @@ public class GUIController {
         FileChooser saveDialog = new FileChooser();
         saveDialog.setTitle("select location to save");
         saveDialog.setInitialDirectory(new File(System.getProperty("user.dir")));
+        saveDialog.getExtensionFilters().addAll(SAVE_FILE_FILTER, PROJECT_FILE_FILTER);
         saveDialog.setSelectedExtensionFilter(SAVE_FILE_FILTER);
 
         File f = saveDialog.showSaveDialog(Main.theStage);
         if(f != null) {
-            try {
-                EditingData ed = EditingData.getInstance();
-                if(ed != null) {
-                    ed.toFile(f.getAbsolutePath());
-                    ed.setFilename(f.getAbsolutePath());
+            EditingData ed = EditingData.getInstance();
+            if(ed != null) {
+                String fn = f.getAbsolutePath();
+                saveInBackground(ed, fn, () -> {
+                    ed.setFilename(fn);
 
                     Alert a = new Alert(Alert.AlertType.INFORMATION);
                     a.setTitle("Saved!");
                     a.setHeaderText("");
-                    a.setContentText(String.format("Succesfully saved to %s", ed.getFilename()));
+                    a.setContentText(String.format("Succesfully saved to %s", fn));
                     a.showAndWait();
-                }
+                });
+            }
+        }
+    }
+
+    // write the data as it is right now to fn without holding up the UI; editing can carry on while it's written.
+    // onSaved runs back on the FX thread if it worked; if not the user gets an error dialog
+    private void saveInBackground(EditingData ed, String fn, Runnable onSaved) {
+        writeInBackground(ed, snapshot -> snapshot.toFile(fn), () -> {
+            System.out.println("Saved " + fn);
+            onSaved.run();
+        }, String.format("Error saving file: %s", fn));
+    }
+
+    // something that writes out a snapshot of the editing data
+    private interface SnapshotWriter {
+        void write(EditingData snapshot) throws IOException;
+    }
+
+    // run writer on a snapshot of ed taken now, on the save thread so it queues up behind any saves.  onWritten
+    // runs back on the FX thread if it worked; if not the user gets an error dialog headed errorHeader
+    private void writeInBackground(EditingData ed, SnapshotWriter writer, Runnable onWritten, String errorHeader) {
+        EditingData snapshot = ed.snapshot();
+        Task<Void> write = new Task<Void>() {
+            @Override
+            protected Void call() throws IOException {
+                writer.write(snapshot);
+                return null;
+            }
+        };
+
+        write.setOnSucceeded(event -> onWritten.run());
+        write.setOnFailed(event -> {
+            Alert a = new Alert(Alert.AlertType.ERROR);
+            a.setTitle("ERROR!");
+            a.setHeaderText(errorHeader);
+            a.setContentText(write.getException().toString());
+            a.showAndWait();
+        });
+
+        saveExecutor.execute(write);
+    }
+
+    @FXML
+    public void menuExportBinary() {
+        System.out.println("Export Binary menu");
+
+        FileChooser exportDialog = new FileChooser();
+        exportDialog.setTitle("select location to export CHR data (palettes go alongside as .pal)");
+        exportDialog.setInitialDirectory(new File(System.getProperty("user.dir")));
+        exportDialog.setSelectedExtensionFilter(BINARY_FILE_FILTER);
+
+        File f = exportDialog.showSaveDialog(Main.theStage);
+        if(f != null) {
+            EditingData ed = EditingData.getInstance();
+            if(ed != null) {
+                String base = f.getAbsolutePath().replaceAll("\\.[^.\\\\/]*$", "");
+                writeInBackground(ed, snapshot -> snapshot.toBinaryFiles(base + ".chr", base + ".pal"), () -> {
+                    Alert a = new Alert(Alert.AlertType.INFORMATION);
+                    a.setTitle("Exported!");
+                    a.setHeaderText("");
+                    a.setContentText(String.format("Succesfully exported to %s.chr and %s.pal", base, base));
+                    a.showAndWait();
+                }, "Error exporting binary files");
+            }
+        }
+    }
+
+    @FXML
+    public void menuExportCompressed() {
+        System.out.println("Export Compressed menu");
+
+        EditingData ed = EditingData.getInstance();
+        if(ed == null) {
+            return;
+        }
+
+        FileChooser exportDialog = compressedChrChooser("select location to export compressed CHR data");
+        File f = exportDialog.showSaveDialog(Main.theStage);
+        if(f != null) {
+            CompressedChr.Format format = compressedFormat(exportDialog);
+            int before = ed.getTileMemory().usedBytes();
+            // compressing all of VRAM can take a moment, so it's done off a snapshot like a save
+            writeInBackground(ed, snapshot -> snapshot.toCompressedChr(f.getAbsolutePath(), format), () -> {
+                long after = f.length();
+                Alert a = new Alert(Alert.AlertType.INFORMATION);
+                a.setTitle("Exported!");
+                a.setHeaderText("");
+                a.setContentText(String.format("Exported to %s (%s, %d bytes down to %d, %.1f%%)",
+                        f.getName(), format, before, after, (before > 0) ? (100.0 * after / before) : 0.0));
+                a.showAndWait();
+            }, "Error exporting compressed CHR data");
+        }
+    }
+
+    @FXML
+    public void menuImportCompressed() {
+        System.out.println("Import Compressed menu");
+
+        EditingData ed = EditingData.getInstance();
+        if(ed == null) {
+            return;
+        }
+
+        FileChooser importDialog = compressedChrChooser("select compressed CHR data to replace the tiles with");
+        File f = importDialog.showOpenDialog(Main.theStage);
+        if(f != null) {
+            try {
+                ed.fromCompressedChr(f.getAbsolutePath(), compressedFormat(importDialog));
             } catch(IOException e) {
                 Alert a = new Alert(Alert.AlertType.ERROR);
                 a.setTitle("ERROR!");
-                a.setHeaderText("Error saving file");
+                a.setHeaderText("Error importing compressed CHR data");
                 a.setContentText(e.toString());
                 a.showAndWait();
             }
         }
     }
 
+    // both formats are .bin files, so the filter picked is what says which one
+    private FileChooser compressedChrChooser(String title) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle(title);
+        chooser.setInitialDirectory(new File(System.getProperty("user.dir")));
+        chooser.getExtensionFilters().addAll(LZ2_FILE_FILTER, RLE_FILE_FILTER);
+        return chooser;
+    }
+
+    private CompressedChr.Format compressedFormat(FileChooser chooser) {
+        return (chooser.getSelectedExtensionFilter() == RLE_FILE_FILTER) ? CompressedChr.Format.RLE : CompressedChr.Format.LZ2;
+    }
+
     @FXML
-    public void menuOpen() {
-        System.out.println("Open menu");
+    public void menuImportImage() {
+        System.out.println("Import Image menu");
+
+        EditingData ed = EditingData.getInstance();
+        if(ed == null) {
+            return;
+        }
+
+        FileChooser importDialog = new FileChooser();
+        importDialog.setTitle("select an image to import as tiles");
+        importDialog.setInitialDirectory(new File(System.getProperty("user.dir")));
+        importDialog.getExtensionFilters().add(IMAGE_FILE_FILTER);
+
+        File f = importDialog.showOpenDialog(Main.theStage);
+        if(f != null) {
+            // palettes are copied here on the FX thread; the slicing and matching happen on the loader thread
+            ImageImporter importer = new ImageImporter(ed);
+            Task<ImageImporter.Result> importTask = new Task<ImageImporter.Result>() {
+                @Override
+                protected ImageImporter.Result call() throws Exception {
+                    return importer.read(f);
+                }
+            };
+            importTask.setOnSucceeded(event -> {
+                ImageImporter.Result result = importTask.getValue();
+                if(EditingData.getInstance() != ed) {
+                    // something else got opened meanwhile
+                    return;
+                }
+                int first = ed.importTiles(result);
+                if(first < 0) {
+                    Alert a = new Alert(Alert.AlertType.ERROR);
+                    a.setTitle("ERROR!");
+                    a.setHeaderText("Image doesn't fit");
+                    a.setContentText(String.format("%d tiles won't fit in the %d tile rows left",
+                            result.getTileCount(), ed.maxTileRows() - ed.getTileRows()));
+                    a.showAndWait();
+                } else {
+                    Alert a = new Alert(Alert.AlertType.INFORMATION);
+                    a.setTitle("Imported!");
+                    a.setHeaderText("");
+                    a.setContentText(String.format("Imported %d tiles starting at tile %d, laid out %d across at the top left of the tilemap",
+                            result.getTileCount(), first, result.getTilesAcross()));
+                    a.showAndWait();
+                    showTilemapWindow();
+                }
+            });
+            importTask.setOnFailed(event -> {
+                Alert a = new Alert(Alert.AlertType.ERROR);
+                a.setTitle("ERROR!");
+                a.setHeaderText("Error importing image");
+                a.setContentText(importTask.getException().toString());
+                a.showAndWait();
+            });
+
+            Thread loader = new Thread(importTask, "import " + f.getName());
+            loader.setDaemon(true);
+            loader.start();
+        }
+    }
+
+    @FXML
+    public void menuNewTilemap32() {
+        newTilemap(Tilemap.SCREEN_SIZE);
+    }
+
+    @FXML
+    public void menuNewTilemap64() {
+        newTilemap(Tilemap.SCREEN_SIZE * 2);
+    }
+
+    private void newTilemap(int size) {
+        EditingData ed = EditingData.getInstance();
+        if(ed != null) {
+            ed.setTilemap(new Tilemap(size));
+            showTilemapWindow();
+        }
+    }
+
+    @FXML
+    public void menuOpenTilemap() {
+        System.out.println("Open Tilemap menu");
+
+        EditingData ed = EditingData.getInstance();
+        if(ed == null) {
+            return;
+        }
 
         FileChooser openDialog = new FileChooser();
-        openDialog.setTitle("Select a file to open");
+        openDialog.setTitle("Select a tilemap to open");
         openDialog.setInitialDirectory(new File(System.getProperty("user.dir")));
-        openDialog.setSelectedExtensionFilter(SAVE_FILE_FILTER);
+        openDialog.getExtensionFilters().addAll(TILEMAP_FILE_FILTER, TILEMAP_BINARY_FILTER);
 
         File f = openDialog.showOpenDialog(Main.theStage);
         if(f != null) {
             try {
-                EditingData newData = EditingData.fromFile(f.getAbsolutePath());
-
-                bitDepthListener.enabled = false;
-                switch(newData.getBitDepth()) {
-                    case 1:
-                        bitDepthSel.getSelectionModel().select(0);
-                        break;
-                    case 2:
-                        bitDepthSel.getSelectionModel().select(1);
-                        break;
-                    case 4:
-                        bitDepthSel.getSelectionModel().select(2);
-                        break;
-                    case 8:
-                        bitDepthSel.getSelectionModel().select(3);
-                        break;
+                Tilemap map;
+                if(f.getName().endsWith(".inc")) {
+                    try(InputStream in = new FileInputStream(f)) {
+                        map = new IncReader(in, f.getName()).readTilemap(f.getName().replaceAll("\\..*$", ""));
+                    }
+                } else {
+                    byte[] data = Files.readAllBytes(f.toPath());
+                    try {
+                        map = Tilemap.fromBytes(data, 0, data.length);
+                    } catch(IllegalArgumentException e) {
+                        throw new IOException(f.getName() + ": " + e.getMessage());
+                    }
                 }
-                bitDepthListener.enabled = true;
-            } catch (IOException e) {
+                ed.setTilemap(map);
+                showTilemapWindow();
+            } catch(IOException e) {
                 Alert a = new Alert(Alert.AlertType.ERROR);
                 a.setTitle("ERROR!");
-                a.setHeaderText("Error loading file");
+                a.setHeaderText("Error loading tilemap");
                 a.setContentText(e.toString());
                 a.showAndWait();
             }
         }
     }
 
+    @FXML
+    public void menuSaveTilemap() {
+        System.out.println("Save Tilemap menu");
 
-    public void newEditingData(int bitDepthSel) {
-        // TODO check with user if we should save current data maybe?
+        EditingData ed = EditingData.getInstance();
+        if(ed == null || ed.getTilemap() == null) {
+            return;
+        }
+
+        FileChooser saveDialog = new FileChooser();
+        saveDialog.setTitle("select location to save tilemap (.inc, or .map for raw binary)");
+        saveDialog.setInitialDirectory(new File(System.getProperty("user.dir")));
+        saveDialog.getExtensionFilters().addAll(TILEMAP_FILE_FILTER, TILEMAP_BINARY_FILTER);
+
+        File f = saveDialog.showSaveDialog(Main.theStage);
+        if(f != null) {
+            try {
+                if(f.getName().endsWith(".inc")) {
+                    IncWriter.writeTilemapFile(ed.getTilemap(), f.toPath());
+                } else {
+                    BinWriter.writeTilemap(ed.getTilemap(), f.toPath());
+                }
+            } catch(IOException e) {
+                Alert a = new Alert(Alert.AlertType.ERROR);
+                a.setTitle("ERROR!");
+                a.setHeaderText("Error saving tilemap");
+                a.setContentText(e.toString());
+                a.showAndWait();
+            }
+        }
+    }
+
+    // shows the tilemap, starting an empty 32x32 one if there isn't one yet
+    @FXML
+    public void menuShowTilemap() {
+        EditingData ed = EditingData.getInstance();
+        if(ed != null && ed.getTilemap() == null) {
+            ed.setTilemap(new Tilemap(Tilemap.SCREEN_SIZE));
+        }
+        showTilemapWindow();
+    }
+
+    private void showTilemapWindow() {
+        if(tilemapWindow == null) {
+            tilemapWindow = new TilemapWindow(tmcc, pcc);
+        }
+        tilemapWindow.show();
+    }
+
+    @FXML
+    public void menuRenderStats() {
+        TileImageCache cache = TileImageCache.getInstance();
+        long lookups = cache.getHits() + cache.getMisses();
+
+        Alert a = new Alert(Alert.AlertType.INFORMATION);
+        a.setTitle("Render Statistics");
+        a.setHeaderText("");
+        a.setContentText(String.format(
+                "Tile image cache: %d hits, %d misses (%.1f%% hit rate)%n" +
+                "%d images, %d / %d KB, %d evicted%n" +
+                "Frames drawn: %d",
+                cache.getHits(), cache.getMisses(), (lookups > 0) ? (100.0 * cache.getHits() / lookups) : 0.0,
+                cache.getEntryCount(), cache.getMemoryUsed() / 1024, cache.getMemoryLimit() / 1024, cache.getEvictions(),
+                RenderScheduler.getInstance().getFramesDrawn()));
+        a.showAndWait();
+    }
+
+    @FXML
+    public void menuUndo() {
+        EditJournal.getInstance().undo();
+    }
+
+    @FXML
+    public void menuRedo() {
+        EditJournal.getInstance().redo();
+    }
+
+    // how long the palette optimizer gets to look for a better packing
+    private static final long PALETTE_SEARCH_MILLIS = 2000;
+
+    @FXML
+    public void menuOptimizePalettes() {
+        System.out.println("Optimize Palettes menu");
+
+        EditingData ed = EditingData.getInstance();
+        if(ed == null) {
+            return;
+        }
+
+        // the data is copied here on the FX thread; the search happens on the optimizer thread
+        PaletteOptimizer optimizer = new PaletteOptimizer(ed, pcc.getSelectedPalette());
+        Task<PaletteOptimizer.Plan> optimize = new Task<PaletteOptimizer.Plan>() {
+            @Override
+            protected PaletteOptimizer.Plan call() {
+                return optimizer.solve(PALETTE_SEARCH_MILLIS);
+            }
+        };
+        optimize.setOnSucceeded(event -> {
+            PaletteOptimizer.Plan plan = optimize.getValue();
+            if(EditingData.getInstance() != ed) {
+                // something else got opened meanwhile
+                return;
+            }
+
+            Alert confirm = new Alert(Alert.AlertType.CONFIRMATION);
+            confirm.setTitle("Optimize Palettes");
+            if(plan.getPalettesNeeded() <= plan.getPaletteCount()) {
+                confirm.setHeaderText(String.format("The %d tiles can share %d palettes (%d allowed)",
+                        plan.getTileCount(), plan.getPalettesNeeded(), ed.maxPalettes()));
+            } else {
+                confirm.setHeaderText(String.format("The %d tiles need %d palettes, but only %d are allowed",
+                        plan.getTileCount(), plan.getPalettesNeeded(), plan.getPaletteCount()));
+            }
+            String inexact = "";
+            if(plan.getTooManyColorsTiles() > 0) {
+                inexact += String.format("%d tiles use more colors than a palette holds and will change slightly. ",
+                        plan.getTooManyColorsTiles());
+            }
+            if(plan.getUnfitTiles() > 0) {
+                inexact += String.format("%d tiles will be drawn with the nearest of the palettes kept. ",
+                        plan.getUnfitTiles());
+            }
+            confirm.setContentText(inexact + "Replace the palettes and remap the tiles to them? This can't be undone.");
+            confirm.showAndWait().ifPresent(button -> {
+                if(button == ButtonType.OK && !ed.applyPalettePlan(plan)) {
+                    Alert stale = new Alert(Alert.AlertType.WARNING);
+                    stale.setTitle("Optimize Palettes");
+                    stale.setHeaderText("The data changed while the palettes were being optimized");
+                    stale.setContentText("Nothing was replaced; run Optimize Palettes again.");
+                    stale.showAndWait();
+                }
+            });
+        });
+        optimize.setOnFailed(event -> {
+            Alert a = new Alert(Alert.AlertType.ERROR);
+            a.setTitle("ERROR!");
+            a.setHeaderText("Error optimizing palettes");
+            a.setContentText(optimize.getException().toString());
+            a.showAndWait();
+        });
 
-        // translate the index to the actual bit depth
+        Thread worker = new Thread(optimize, "optimize palettes");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @FXML
+    public void menuDeduplicate() {
+        System.out.println("Deduplicate menu");
+
+        EditingData ed = EditingData.getInstance();
+        if(ed == null) {
+            return;
+        }
+
+        TileDedupeIndex index = ed.getTileMemory().getDedupeIndex();
+        if(index.getRedundantTileCount() == 0) {
+            Alert a = new Alert(Alert.AlertType.INFORMATION);
+            a.setTitle("Deduplicate Tiles");
+            a.setHeaderText("");
+            a.setContentText("No duplicate tiles");
+            a.showAndWait();
+            return;
+        }
+
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION);
+        confirm.setTitle("Deduplicate Tiles");
+        confirm.setHeaderText(String.format("%d tiles are copies of others (%d groups, counting flips)",
+                index.getRedundantTileCount(), index.getDuplicateGroupCount()));
+        confirm.setContentText("Remove them and pack the remaining tiles together? This can't be undone.");
+        confirm.showAndWait().ifPresent(button -> {
+            if(button == ButtonType.OK) {
+                int before = ed.getTileRows();
+                ed.deduplicateTiles();
+
+                Alert a = new Alert(Alert.AlertType.INFORMATION);
+                a.setTitle("Deduplicated!");
+                a.setHeaderText("");
+                a.setContentText(String.format("Tile rows went from %d to %d", before, ed.getTileRows()));
+                a.showAndWait();
+            }
+        });
+    }
+
+    @FXML
+    public void menuOpen() {
+        System.out.println("Open menu");
+
+        FileChooser openDialog = new FileChooser();
+        openDialog.setTitle("Select a file to open");
+        openDialog.setInitialDirectory(new File(System.getProperty("user.dir")));
+        openDialog.getExtensionFilters().addAll(SAVE_FILE_FILTER, PROJECT_FILE_FILTER);
+        openDialog.setSelectedExtensionFilter(SAVE_FILE_FILTER);
+
+        File f = openDialog.showOpenDialog(Main.theStage);
+        if(f != null) {
+            openInBackground(f);
+        }
+    }
+
+    // read f in on another thread, showing its tiles as they come in.  The current data stays as it is until
+    // the whole file is read, so cancelling or a bad file leaves it alone
+    private void openInBackground(File f) {
+        OpenTask open = new OpenTask(f);
+
+        ProgressBar progress = new ProgressBar();
+        progress.setPrefWidth(300);
+        progress.progressProperty().bind(open.progressProperty());
+        Dialog<ButtonType> progressDialog = new Dialog<>();
+        progressDialog.initOwner(Main.theStage);
+        progressDialog.setTitle("Opening");
+        progressDialog.setHeaderText(String.format("Reading %s", f.getName()));
+        progressDialog.getDialogPane().setContent(progress);
+        progressDialog.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
+        // closing the dialog any way other than the load finishing means cancel (no-op once it's done)
+        progressDialog.setOnHidden(event -> open.cancel());
+
+        open.setOnSucceeded(event -> {
+            tmcc.showLoading(null);
+            progressDialog.close();
+
+            EditingData newData = open.getValue();
+            newData.makeCurrent();
+            System.out.println(String.format("read in editing data: %d %d %d", newData.getTileRows(), newData.getBitDepth(), newData.currentPalettes()));
+
+            bitDepthListener.enabled = false;
+            switch(newData.getBitDepth()) {
+                case 1:
+                    bitDepthSel.getSelectionModel().select(0);
+                    break;
+                case 2:
+                    bitDepthSel.getSelectionModel().select(1);
+                    break;
+                case 4:
+                    bitDepthSel.getSelectionModel().select(2);
+                    break;
+                case 8:
+                    bitDepthSel.getSelectionModel().select(3);
+                    break;
+            }
+            bitDepthListener.enabled = true;
+        });
+        open.setOnCancelled(event -> tmcc.showLoading(null));
+        open.setOnFailed(event -> {
+            tmcc.showLoading(null);
+            progressDialog.close();
+
+            Alert a = new Alert(Alert.AlertType.ERROR);
+            a.setTitle("ERROR!");
+            a.setHeaderText("Error loading file");
+            a.setContentText(open.getException().toString());
+            a.showAndWait();
+        });
+
+        tmcc.showLoading(open);
+        Thread loader = new Thread(open, "open " + f.getName());
+        loader.setDaemon(true);
+        loader.start();
+        progressDialog.show();
+    }
+
+
+    // translate the index in the bit depth selector to the actual bit depth
+    private static int selectedBitDepth(int bitDepthSel) {
         int bitDepth = 1;
         switch(bitDepthSel) {
             case 1:
@@ -229,6 +736,40 @@ public class GUIController {
             default:
                 break;
         }
+        return bitDepth;
+    }
+
+    // re-encode the current data at another bit depth, keeping the artwork; see BitDepthConverter.  Tiles not on
+    // the tilemap are converted against the selected palette
+    public void convertEditingData(int bitDepthSel) {
+        EditingData ed = EditingData.getInstance();
+        int bitDepth = selectedBitDepth(bitDepthSel);
+        if(ed == null) {
+            newEditingData(bitDepthSel);
+            return;
+        }
+        if(ed.getBitDepth() == bitDepth) {
+            return;
+        }
+
+        int defaultPalette = (pcc != null) ? pcc.getSelectedPalette() : 0;
+        EditingData converted = BitDepthConverter.convert(ed, bitDepth, defaultPalette);
+        converted.makeCurrent();
+
+        if(converted.getTileRows() < ed.getTileRows()) {
+            Alert a = new Alert(Alert.AlertType.WARNING);
+            a.setTitle("Tiles dropped");
+            a.setHeaderText("");
+            a.setContentText(String.format("Only %d of %d tile rows fit in VRAM at %d bpp; the rest were dropped",
+                    converted.getTileRows(), ed.getTileRows(), bitDepth));
+            a.showAndWait();
+        }
+    }
+
+    public void newEditingData(int bitDepthSel) {
+        // TODO check with user if we should save current data maybe?
+
+        int bitDepth = selectedBitDepth(bitDepthSel);
 
         // make new data to edit
         EditingData ed = new EditingData(bitDepth);
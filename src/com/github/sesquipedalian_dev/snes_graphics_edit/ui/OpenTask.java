@@ -0,0 +1,134 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.ui;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.IncReader;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.ProjectFile;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.SnesColor;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileMemory;
+import javafx.concurrent.Task;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+/**
+ * OpenTask
+ * Reads an .inc file (or a binary project, see ProjectFile) in on a background thread.  Progress goes by how many bytes of the file have been read, and
+ * the rows of tiles read so far are published as a Preview so they can be shown before the whole file is in.
+ * The data read in isn't made current - that's up to whoever takes the result - so cancelling leaves the
+ * document that's open alone.
+ */
+public class OpenTask extends Task<EditingData> {
+    // the part of the file read in so far.  Only ever covers rows the reader is done with, so it's safe to draw
+    // from the FX thread while the read carries on
+    public static class Preview {
+        private final TileMemory tiles;
+        private final int tileRows;
+        private final int[][] argbTables;
+
+        private Preview(TileMemory tiles, int tileRows, int[][] argbTables) {
+            this.tiles = tiles;
+            this.tileRows = tileRows;
+            this.argbTables = argbTables;
+        }
+
+        public TileMemory getTiles() {
+            return tiles;
+        }
+
+        public int getTileRows() {
+            return tileRows;
+        }
+
+        // colors of the given palette as read from the file; all black if it doesn't have that one
+        public int[] getArgbTable(int palette) {
+            if(palette >= 0 && palette < argbTables.length) {
+                return argbTables[palette];
+            }
+            int[] black = new int[1 << tiles.getBitDepth()];
+            Arrays.fill(black, SnesColor.toArgb(0));
+            return black;
+        }
+    }
+
+    private final File file;
+    private volatile Preview preview;
+    private volatile Runnable onPreview;
+
+    // palettes come before tiles in the file, so these are copied once when the first rows show up
+    private int[][] argbTables;
+
+    public OpenTask(File file) {
+        this.file = file;
+    }
+
+    // null until some rows of tiles have been read
+    public Preview getPreview() {
+        return preview;
+    }
+
+    // run whenever there's a new preview.  Runs on the loading thread
+    public void setOnPreview(Runnable onPreview) {
+        this.onPreview = onPreview;
+    }
+
+    @Override
+    protected EditingData call() throws IOException {
+        long size = Math.max(1, file.length());
+        String shortName = file.getName().replaceAll("\\..*$", "");
+
+        // these open quickly enough that there's nothing worth previewing
+        if(ProjectFile.isProjectFile(file.getName())) {
+            EditingData retVal = ProjectFile.read(file.toPath());
+            retVal.setFilename(file.getAbsolutePath());
+            updateProgress(size, size);
+            return retVal;
+        }
+
+        try(InputStream in = new FileInputStream(file)) {
+            IncReader reader = new IncReader(in, file.getName());
+            reader.setListener((loading, tileRows) -> {
+                if(isCancelled()) {
+                    throw new InterruptedIOException("open cancelled");
+                }
+                updateProgress(reader.getBytesRead(), size);
+
+                if(argbTables == null) {
+                    argbTables = new int[loading.currentPalettes()][];
+                    for(int i = 0; i < argbTables.length; ++i) {
+                        argbTables[i] = loading.getPalette(i).getArgbTable().clone();
+                    }
+                }
+                preview = new Preview(loading.getTileMemory(), tileRows, argbTables);
+
+                Runnable r = onPreview;
+                if(r != null) {
+                    r.run();
+                }
+            });
+
+            EditingData retVal = reader.read(shortName);
+            retVal.setFilename(file.getAbsolutePath());
+            updateProgress(size, size);
+            return retVal;
+        }
+    }
+}
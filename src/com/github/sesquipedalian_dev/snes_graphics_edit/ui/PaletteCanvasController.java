@@ -15,12 +15,10 @@
  */
 package com.github.sesquipedalian_dev.snes_graphics_edit.ui;
 
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditJournal;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.Palette;
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
-import javafx.event.ActionEvent;
+import com.github.sesquipedalian_dev.snes_graphics_edit.util.Util;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.ColorPicker;
@@ -41,6 +39,7 @@ public class PaletteCanvasController {
     private int selectedPalette = 0;
     private int selectedColor = 0;
     private boolean enableColorPickerOnChange = true;
+    private RenderScheduler.Target renderTarget;
 
     public int getSelectedPalette() {
         return selectedPalette;
@@ -54,14 +53,7 @@ public class PaletteCanvasController {
         this.canvas = canvas;
         this.colorPicker = colorPicker;
 
-        Timeline timeline = new Timeline();
-        KeyFrame keyFrame = new KeyFrame(
-            javafx.util.Duration.millis(1000 / 60), // tick at 60 hz
-            event -> drawPalette(event)
-        );
-        timeline.getKeyFrames().setAll(keyFrame);
-        timeline.setCycleCount(Animation.INDEFINITE);
-        timeline.play();
+        renderTarget = RenderScheduler.getInstance().register(() -> drawPalette());
 
         canvas.addEventHandler(
             MouseEvent.MOUSE_CLICKED,
@@ -78,6 +70,9 @@ public class PaletteCanvasController {
     private void selectColor(int selectedPalette, int selectedColor) {
         this.selectedPalette = selectedPalette;
         this.selectedColor = selectedColor;
+
+        // the other views draw using the selected palette
+        RenderScheduler.getInstance().markAllDirty();
     }
 
     private void changeSelectedColor() {
@@ -86,7 +81,12 @@ public class PaletteCanvasController {
         if(ed != null) {
             if(selectedPalette < ed.currentPalettes()) {
                 Palette p = ed.getPalette(selectedPalette);
-                p.selectColor(selectedColor, c);
+                int oldColor = p.getSnesColor(selectedColor);
+                int newColor = Util.javaToSnesColor(c);
+                if(oldColor != newColor) {
+                    p.selectColor(selectedColor, newColor);
+                    EditJournal.getInstance().recordPaletteColor(selectedPalette, selectedColor, oldColor, newColor);
+                }
             }
         }
     }
@@ -115,7 +115,7 @@ public class PaletteCanvasController {
         }
     }
 
-    private void drawPalette(ActionEvent event) {
+    private void drawPalette() {
         // clear the canvas
         GraphicsContext gc = canvas.getGraphicsContext2D();
         gc.setFill(Color.WHITE);
@@ -140,7 +140,7 @@ public class PaletteCanvasController {
                     }
 
                     int indexInPalette = colorIndex % colorsPerPalette;
-                    Color c = ed.getPalette(paletteIndex).getColor(indexInPalette);
+                    Color c = Util.snesToJavaColor(ed.getPalette(paletteIndex).getSnesColor(indexInPalette));
 
                     boolean isSelectedPalette = (paletteIndex == selectedPalette);
                     boolean isSelectedColor = isSelectedPalette && indexInPalette == selectedColor;
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.ui;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * RenderScheduler
+ * Redraws the canvases of the UI controllers, but only the ones that have been marked dirty, and at most once
+ * per JavaFX pulse.  The timer driving it only runs while something is waiting to be drawn, so an idle editor
+ * does no drawing at all.
+ */
+public class RenderScheduler {
+    // singleton pattern
+    private static RenderScheduler instance;
+    public static RenderScheduler getInstance() {
+        if(instance == null) {
+            instance = new RenderScheduler();
+        }
+        return instance;
+    }
+
+    // a thing that gets drawn by the scheduler; mark it dirty when what it shows changes
+    public class Target {
+        private final Runnable draw;
+        private volatile boolean dirty = true;
+        private long framesDrawn = 0;
+
+        private Target(Runnable draw) {
+            this.draw = draw;
+        }
+
+        public void markDirty() {
+            dirty = true;
+            requestPulse();
+        }
+
+        public long getFramesDrawn() {
+            return framesDrawn;
+        }
+    }
+
+    private final List<Target> targets = new CopyOnWriteArrayList<>();
+    private final Queue<Runnable> beforeDraw = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private long framesDrawn = 0;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drawDirtyTargets();
+        }
+    };
+
+    private RenderScheduler() {
+        // anything changing in the data we edit could show up in any of the views
+        EditingData.addChangeListener(this::markAllDirty);
+    }
+
+    public Target register(Runnable draw) {
+        Target t = new Target(draw);
+        targets.add(t);
+        requestPulse();
+        return t;
+    }
+
+    public void markAllDirty() {
+        for(Target t : targets) {
+            t.dirty = true;
+        }
+        requestPulse();
+    }
+
+    // run task on the FX thread at the start of the next pulse, before anything gets drawn.  Lets input handlers
+    // save up work and do it once per frame.  May be called from any thread
+    public void invokeBeforeDraw(Runnable task) {
+        beforeDraw.add(task);
+        requestPulse();
+    }
+
+    // total number of canvas redraws actually done
+    public long getFramesDrawn() {
+        return framesDrawn;
+    }
+
+    // may be called from any thread
+    private void requestPulse() {
+        if(running.compareAndSet(false, true)) {
+            if(Platform.isFxApplicationThread()) {
+                timer.start();
+            } else {
+                Platform.runLater(timer::start);
+            }
+        }
+    }
+
+    private void drawDirtyTargets() {
+        Runnable task;
+        while((task = beforeDraw.poll()) != null) {
+            task.run();
+        }
+
+        for(Target t : targets) {
+            if(t.dirty) {
+                // clear before drawing, so anything changing mid-draw gets another frame
+                t.dirty = false;
+                t.draw.run();
+                t.framesDrawn++;
+                framesDrawn++;
+            }
+        }
+
+        // nothing left to do; go idle until someone marks a target dirty again
+        running.set(false);
+        timer.stop();
+        boolean moreToDo = !beforeDraw.isEmpty();
+        for(Target t : targets) {
+            moreToDo |= t.dirty;
+        }
+        if(moreToDo) {
+            requestPulse();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.ui;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditJournal;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileCHR;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileMemory;
+
+import java.util.Arrays;
+
+/**
+ * StrokeEngine
+ * Turns mouse drags over the tile editor into painted pixels.  Drag events only get queued up; once per pulse
+ * the queued points are joined with straight lines, so fast strokes don't leave gaps, and the pixels go to tile
+ * memory in one batch.  Points are in 'editor pixels': tile pixels counted from the top left of the editor's
+ * grid, x down and y across like everywhere else.  FX thread only.
+ */
+public class StrokeEngine {
+    // queued points, x / y pairs
+    private int[] points = new int[64];
+    private int pointCount = 0;
+    private boolean flushQueued = false;
+
+    // pixel indices of the batch being applied
+    private int[] batch = new int[256];
+    private int batchCount = 0;
+
+    private boolean inStroke = false;
+    private boolean havePrevious = false;
+    private int previousX;
+    private int previousY;
+
+    // fixed for the length of a stroke
+    private int baseTileRow;
+    private int baseTileCol;
+    private int gridSize;
+    private int color;
+
+    // start a stroke at x / y.  baseTileRow / Col is the tile at the top left of the editor, gridSize how many
+    // editor pixels it shows across (and down)
+    public void begin(int baseTileRow, int baseTileCol, int gridSize, int color, int x, int y) {
+        if(inStroke) {
+            end();
+        }
+        this.baseTileRow = baseTileRow;
+        this.baseTileCol = baseTileCol;
+        this.gridSize = gridSize;
+        this.color = color;
+        inStroke = true;
+        havePrevious = false;
+        EditJournal.getInstance().beginStroke();
+        moveTo(x, y);
+    }
+
+    // the stroke got dragged to x / y
+    public void moveTo(int x, int y) {
+        if(!inStroke) {
+            return;
+        }
+        if(pointCount + 2 > points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[pointCount++] = x;
+        points[pointCount++] = y;
+
+        if(!flushQueued) {
+            flushQueued = true;
+            RenderScheduler.getInstance().invokeBeforeDraw(this::flush);
+        }
+    }
+
+    // paint whatever is still queued and close the stroke off as one undo step
+    public void end() {
+        if(!inStroke) {
+            return;
+        }
+        flush();
+        inStroke = false;
+        EditJournal.getInstance().endStroke();
+    }
+
+    private void flush() {
+        flushQueued = false;
+        EditingData ed = EditingData.getInstance();
+        if(ed == null || pointCount == 0) {
+            pointCount = 0;
+            return;
+        }
+
+        TileMemory tiles = ed.getTileMemory();
+        batchCount = 0;
+        for(int i = 0; i < pointCount; i += 2) {
+            int x = points[i];
+            int y = points[i + 1];
+            if(havePrevious) {
+                line(tiles, previousX, previousY, x, y);
+            } else {
+                plot(tiles, x, y);
+            }
+            previousX = x;
+            previousY = y;
+            havePrevious = true;
+        }
+        pointCount = 0;
+
+        ed.paintPixels(batch, batchCount, color);
+    }
+
+    // Bresenham from x0 / y0 to x1 / y1, leaving out the start (it was plotted as the end of the last segment)
+    private void line(TileMemory tiles, int x0, int y0, int x1, int y1) {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int stepX = (x0 < x1) ? 1 : -1;
+        int stepY = (y0 < y1) ? 1 : -1;
+        int err = dx + dy;
+
+        int x = x0;
+        int y = y0;
+        while(x != x1 || y != y1) {
+            int err2 = 2 * err;
+            if(err2 >= dy) {
+                err += dy;
+                x += stepX;
+            }
+            if(err2 <= dx) {
+                err += dx;
+                y += stepY;
+            }
+            plot(tiles, x, y);
+        }
+    }
+
+    // add an editor pixel to the batch if it lands on a tile that exists
+    private void plot(TileMemory tiles, int x, int y) {
+        if(x < 0 || y < 0 || x >= gridSize || y >= gridSize) {
+            return;
+        }
+        int tileRow = baseTileRow + (x / TileCHR.TILE_DIM);
+        int tileCol = baseTileCol + (y / TileCHR.TILE_DIM);
+        if(tileRow >= tiles.getTileRows() || tileCol >= EditingData.TILES_PER_ROW) {
+            return;
+        }
+
+        if(batchCount == batch.length) {
+            batch = Arrays.copyOf(batch, batch.length * 2);
+        }
+        batch[batchCount++] = tiles.pixelIndex(tileRow, tileCol, x % TileCHR.TILE_DIM, y % TileCHR.TILE_DIM);
+    }
+}
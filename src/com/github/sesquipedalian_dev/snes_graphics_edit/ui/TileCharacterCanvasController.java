@@ -18,13 +18,12 @@ package com.github.sesquipedalian_dev.snes_graphics_edit.ui;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.Palette;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileCHR;
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
-import javafx.event.ActionEvent;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileMemory;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.ChoiceBox;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
@@ -39,6 +38,7 @@ public class TileCharacterCanvasController {
     private Canvas canvas;
     private PaletteCanvasController paletteCanvasController;
     private TileMemCanvasController tileMemCanvasController;
+    private RenderScheduler.Target renderTarget;
 
     public TileCharacterCanvasController(ChoiceBox zoomSel, Canvas canvas, PaletteCanvasController paletteCanvasController, TileMemCanvasController tileMemCanvasController) {
         this.tileMemCanvasController = tileMemCanvasController;
@@ -46,14 +46,10 @@ public class TileCharacterCanvasController {
         this.canvas = canvas;
         this.paletteCanvasController = paletteCanvasController;
 
-        Timeline timeline = new Timeline();
-        KeyFrame keyFrame = new KeyFrame(
-            javafx.util.Duration.millis(1000 / 60), // tick at 60 hz
-            event -> draw(event)
+        renderTarget = RenderScheduler.getInstance().register(() -> draw());
+        zoomSel.getSelectionModel().selectedIndexProperty().addListener(
+            (observable, oldValue, newValue) -> renderTarget.markDirty()
         );
-        timeline.getKeyFrames().setAll(keyFrame);
-        timeline.setCycleCount(Animation.INDEFINITE);
-        timeline.play();
 
         canvas.addEventHandler(
             MouseEvent.MOUSE_PRESSED,
@@ -86,68 +82,46 @@ public class TileCharacterCanvasController {
         }
     }
 
-    private boolean mouseDragEnabled = false;
-    private int storedPixelX = -1;
-    private int storedPixelY = -1;
-    private boolean mouseDragHandled = false;
-    private void handleMouseDragged(MouseEvent e) {
-        if(mouseDragEnabled) {
-            mouseDragHandled = true;
-
-            // switch any pixels the mouse is dragged through to the selected color
-            int mouseX = (int) e.getX();
-            int mouseY = (int) e.getY();
+    private StrokeEngine strokes = new StrokeEngine();
 
-            int pixelX = mouseY / (((int) canvas.getHeight()) / pixelsPerRow());
-            int pixelY = mouseX / (((int) canvas.getWidth()) / pixelsPerRow());
-
-            EditingData ed = EditingData.getInstance();
-            int tileX = tileMemCanvasController.getSelectedTileRow() + (pixelX / TileCHR.TILE_DIM);
-            int tileY = tileMemCanvasController.getSelectedTileCol() + (pixelY / TileCHR.TILE_DIM);
+    // which editor pixel (see StrokeEngine) the mouse is over; may be off the grid
+    private int editorPixelX(MouseEvent e) {
+        return Math.floorDiv((int) e.getY(), ((int) canvas.getHeight()) / pixelsPerRow());
+    }
 
-            System.out.println(String.format("Mouse dragged event %s; mouseCoord: %d/%d, pixelCoord %d/%d, tileCoord: %d %d",
-                    e.toString(), mouseX, mouseY, pixelX, pixelY, tileX, tileY
-            ));
+    private int editorPixelY(MouseEvent e) {
+        return Math.floorDiv((int) e.getX(), ((int) canvas.getWidth()) / pixelsPerRow());
+    }
 
-            try {
-                TileCHR currentTile = ed.getTile(tileX, tileY);
-                currentTile.selectColor(pixelX % TileCHR.TILE_DIM, pixelY % TileCHR.TILE_DIM, paletteCanvasController.getSelectedColor());
-            } catch(Exception ex) {
-            }
-        }
+    // switch any pixels the mouse is dragged through to the selected color.  this can fire a thousand times a
+    // second, so it only queues the point up; the stroke engine paints once per frame
+    private void handleMouseDragged(MouseEvent e) {
+        strokes.moveTo(editorPixelX(e), editorPixelY(e));
     }
 
     private void handleMouseReleased(MouseEvent e) {
-        mouseDragEnabled = false;
-        if(!mouseDragHandled) {
-            EditingData ed = EditingData.getInstance();
-            int tileX = tileMemCanvasController.getSelectedTileRow() + (storedPixelX / TileCHR.TILE_DIM);
-            int tileY = tileMemCanvasController.getSelectedTileCol() + (storedPixelY / TileCHR.TILE_DIM);
-
-            try {
-                TileCHR currentTile = ed.getTile(tileX, tileY);
-                currentTile.selectColor(
-                    storedPixelX % TileCHR.TILE_DIM,
-                    storedPixelY % TileCHR.TILE_DIM,
-                    paletteCanvasController.getSelectedColor()
-                );
-            } catch(Exception ex) {
-            }
-        }
+        strokes.end();
     }
 
     private void handleMousePressed(MouseEvent e) {
-        mouseDragEnabled = true;
-        mouseDragHandled = false;
-
-        int mouseX = (int) e.getX();
-        int mouseY = (int) e.getY();
-
-        storedPixelX = mouseY / (((int) canvas.getHeight()) / pixelsPerRow());
-        storedPixelY = mouseX / (((int) canvas.getWidth()) / pixelsPerRow());
+        if(EditingData.getInstance() == null) {
+            return;
+        }
+        strokes.begin(
+            tileMemCanvasController.getSelectedTileRow(),
+            tileMemCanvasController.getSelectedTileCol(),
+            pixelsPerRow(),
+            paletteCanvasController.getSelectedColor(),
+            editorPixelX(e),
+            editorPixelY(e)
+        );
     }
 
-    private void draw(ActionEvent event) {
+    // the tiles in view are put together here then drawn in one go
+    private WritableImage tilesImage;
+    private int[] tilesPixels;
+
+    private void draw() {
         // clear the canvas
         GraphicsContext gc = canvas.getGraphicsContext2D();
         gc.setFill(Color.WHITE);
@@ -159,77 +133,53 @@ public class TileCharacterCanvasController {
 
         EditingData ed = EditingData.getInstance();
         if(ed != null) {
-            int bitDepth = ed.getBitDepth();
             int selectedPaletteIndex = paletteCanvasController.getSelectedPalette();
-            Palette palette= null;
-            try {
-                palette = ed.getPalette(selectedPaletteIndex);
-            } catch (Exception e) {
-                // use dummy palette if not available
-                palette = new Palette(bitDepth);
-            }
+            // no palette draws black
+            Palette palette = (selectedPaletteIndex < ed.currentPalettes()) ? ed.getPalette(selectedPaletteIndex) : null;
 
             int pixelSize = (int) canvas.getWidth() / pixelsPerRow();
-            TileCHR currentTile = null;
-
-            for(int x = 0; x < pixelsPerRow(); ++x) {
-                for (int y = 0; y < pixelsPerRow(); ++y) {
-                    int rectX = y * pixelSize;
-                    int rectY = x * pixelSize;
-
-                    if(rectX > canvas.getWidth() || rectY > canvas.getHeight()) {
-                        // skip stuff that's 'off screen'
-                        break;
-                    }
-
-                    // when we get into the next tile load it up
-                    if(y % TileCHR.TILE_DIM == 0) {
-                        try {
-                            currentTile = ed.getTile(
-                                tileMemCanvasController.getSelectedTileRow() + (x / TileCHR.TILE_DIM),
-                                tileMemCanvasController.getSelectedTileCol() + (y / TileCHR.TILE_DIM)
-                            );
-                        } catch(Exception e) {
-                            // ignore tiles we can't find
-                            currentTile = null;
-                        }
-                    }
-
-                    Color tileColor;
-                    if(currentTile != null) {
-                        int indexInTileX = x % TileCHR.TILE_DIM;
-                        int indexInTileY = y % TileCHR.TILE_DIM;
-                        int paletteIndex = currentTile.getColorSelected(indexInTileX, indexInTileY);
-                        tileColor = palette.getColor(paletteIndex);
-                    } else {
-                        tileColor = palette.getColor(0);
-                    }
-                    gc.setStroke(tileColor);
-                    gc.setFill(tileColor);
-                    gc.fillRect(rectX, rectY, pixelSize, pixelSize);
-
+            int tilesAcross = pixelsPerRow() / TileCHR.TILE_DIM;
+            int tileSize = TileCHR.TILE_DIM * pixelSize;
+            int size = tilesAcross * tileSize;
+            if(tilesImage == null || (int) tilesImage.getWidth() != size) {
+                tilesImage = new WritableImage(size, size);
+                tilesPixels = new int[size * size];
+            }
 
-                    // only show pixel grid for sufficiently zoomed modes
-                    if(zoomSelection > 1) {
-                        gc.setStroke(Color.BROWN);
-                        gc.strokeRect(rectX, rectY, pixelSize, pixelSize);
+            // copy each tile's (cached, already scaled up) pixels into place
+            TileMemory tiles = ed.getTileMemory();
+            TileImageCache cache = TileImageCache.getInstance();
+            for(int tileX = 0; tileX < tilesAcross; ++tileX) {
+                for(int tileY = 0; tileY < tilesAcross; ++tileY) {
+                    int row = tileMemCanvasController.getSelectedTileRow() + tileX;
+                    int col = tileMemCanvasController.getSelectedTileCol() + tileY;
+                    // tiles off the end of memory show as color 0
+                    int tile = (row < tiles.getTileRows() && col < EditingData.TILES_PER_ROW) ? (row * EditingData.TILES_PER_ROW) + col : -1;
+
+                    int[] image = cache.get(tiles, tile, palette, 0, pixelSize);
+                    int start = (tileX * tileSize * size) + (tileY * tileSize);
+                    for(int i = 0; i < tileSize; ++i) {
+                        System.arraycopy(image, i * tileSize, tilesPixels, start + (i * size), tileSize);
                     }
                 }
             }
+            tilesImage.getPixelWriter().setPixels(0, 0, size, size, PixelFormat.getIntArgbInstance(), tilesPixels, 0, size);
+            gc.drawImage(tilesImage, 0, 0);
+
+            // only show pixel grid for sufficiently zoomed modes
+            if(zoomSelection > 1) {
+                gc.setStroke(Color.BROWN);
+                for(int i = 0; i <= pixelsPerRow(); ++i) {
+                    gc.strokeLine(i * pixelSize, 0, i * pixelSize, size);
+                    gc.strokeLine(0, i * pixelSize, size, i * pixelSize);
+                }
+            }
 
-            // show base tile outlines on indices that line up with those
-            for(int x = 0; x < pixelsPerRow(); ++ x) {
-                for (int y = 0; y < pixelsPerRow(); ++y) {
-                    int rectX = x * pixelSize;
-                    int rectY = y * pixelSize;
-
-                    if ((zoomSelection < 4) &&
-                        ((x % TileCHR.TILE_DIM) == 0) &
-                        ((y % TileCHR.TILE_DIM) == 0)
-                    ) {
-                        gc.setStroke(Color.YELLOW);
-                        gc.strokeRect(rectX, rectY, pixelSize * TileCHR.TILE_DIM, pixelSize * TileCHR.TILE_DIM);
-                    }
+            // show base tile outlines
+            gc.setStroke(Color.YELLOW);
+            for(int tileX = 0; tileX < tilesAcross; ++tileX) {
+                for(int tileY = 0; tileY < tilesAcross; ++tileY) {
+                    gc.strokeRect(tileX * tileSize, tileY * tileSize, tileSize, tileSize);
                 }
             }
         }
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.ui;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.Palette;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.PlanarCodec;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileCHR;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileMemory;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.Tilemap;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TileImageCache
+ * Tiles already turned into ARGB pixels, shared by every view that draws whole tiles.  Entries are keyed by the
+ * tile's version, the palette's version, the flips and the scale, so an edit never has to find and throw out
+ * what it made stale: the old entries just stop being asked for, and fall off the end of the LRU order once the
+ * cache is over its memory limit.  FX thread only.
+ */
+public class TileImageCache {
+    public static final long DEFAULT_MEMORY_LIMIT = 8 * 1024 * 1024;
+
+    // singleton pattern
+    private static TileImageCache instance;
+    public static TileImageCache getInstance() {
+        if(instance == null) {
+            instance = new TileImageCache();
+        }
+        return instance;
+    }
+
+    private static class Key {
+        final long tileVersion;
+        final long paletteVersion;
+        final int flipsAndScale;
+
+        Key(long tileVersion, long paletteVersion, int flipsAndScale) {
+            this.tileVersion = tileVersion;
+            this.paletteVersion = paletteVersion;
+            this.flipsAndScale = flipsAndScale;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Long.hashCode(tileVersion) * 31 + Long.hashCode(paletteVersion)) * 31 + flipsAndScale;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.tileVersion == tileVersion && k.paletteVersion == paletteVersion && k.flipsAndScale == flipsAndScale;
+        }
+    }
+
+    // access ordered, so iteration starts from the least recently used
+    private final LinkedHashMap<Key, int[]> images = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+    private long memoryUsed = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private final byte[] chunky = new byte[PlanarCodec.PIXELS_PER_TILE];
+
+    private TileImageCache() {
+    }
+
+    // the pixels of a tile, (TILE_DIM * scale) square, row major, drawn with palette and flipped by the
+    // Tilemap.FLIP_ bits in flips.  Tiles outside tile memory come out all color 0; a null palette draws
+    // everything black.  Don't modify the array
+    public int[] get(TileMemory tiles, int tile, Palette palette, int flips, int scale) {
+        boolean inMemory = tile >= 0 && tile < tiles.getTileRows() * tiles.getTilesPerRow();
+        // stamps are never negative, so -1 can stand for 'blank' / 'black'
+        long tileVersion = inMemory ? tiles.getTileVersion(tile) : -1;
+        long paletteVersion = (palette != null) ? palette.getVersion() : -1;
+        Key key = new Key(tileVersion, paletteVersion, (flips & (Tilemap.FLIP_H | Tilemap.FLIP_V)) | scale);
+
+        int[] image = images.get(key);
+        if(image != null) {
+            hits++;
+            return image;
+        }
+
+        misses++;
+        image = render(tiles, inMemory ? tile : -1, palette, flips, scale);
+        images.put(key, image);
+        memoryUsed += bytesFor(image);
+        trim();
+        return image;
+    }
+
+    private int[] render(TileMemory tiles, int tile, Palette palette, int flips, int scale) {
+        if(tile >= 0) {
+            PlanarCodec.decodeTile(tiles.getData(), tile * TileCHR.bytesPerTile(tiles.getBitDepth()), tiles.getBitDepth(), chunky, 0);
+        } else {
+            Arrays.fill(chunky, (byte) 0);
+        }
+        int[] argbLut = (palette != null) ? palette.getArgbTable() : null;
+
+        boolean flipH = (flips & Tilemap.FLIP_H) != 0;
+        boolean flipV = (flips & Tilemap.FLIP_V) != 0;
+        int size = TileCHR.TILE_DIM * scale;
+        int[] image = new int[size * size];
+        for(int x = 0; x < TileCHR.TILE_DIM; ++x) {
+            int fromX = flipV ? (TileCHR.TILE_DIM - 1 - x) : x;
+            int rowStart = x * scale * size;
+            for(int y = 0; y < TileCHR.TILE_DIM; ++y) {
+                int fromY = flipH ? (TileCHR.TILE_DIM - 1 - y) : y;
+                int index = chunky[(fromX * TileCHR.TILE_DIM) + fromY] & 0xFF;
+                int color = (argbLut != null) ? argbLut[index] : 0xFF000000;
+                Arrays.fill(image, rowStart + (y * scale), rowStart + ((y + 1) * scale), color);
+            }
+            // scaled up rows repeat the first one
+            for(int i = 1; i < scale; ++i) {
+                System.arraycopy(image, rowStart, image, rowStart + (i * size), size);
+            }
+        }
+        return image;
+    }
+
+    private static long bytesFor(int[] image) {
+        // the array plus rough overhead for its key and map entry
+        return (image.length * 4L) + 64;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<Key, int[]>> it = images.entrySet().iterator();
+        while(memoryUsed > memoryLimit && it.hasNext()) {
+            memoryUsed -= bytesFor(it.next().getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+        trim();
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public int getEntryCount() {
+        return images.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+}
@@ -18,23 +18,28 @@ package com.github.sesquipedalian_dev.snes_graphics_edit.ui;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.Palette;
 import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileCHR;
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileDedupeIndex;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileMemory;
 import javafx.event.ActionEvent;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.paint.Color;
 
 /**
  * UI controller for the UI that displays the tile mem we're manipulating.  This gives a view of the entire
- * tile character data that we're editing.
+ * tile character data that we're editing.  Tile memory can be up to a full VRAM's worth of rows, so the canvas
+ * is a scrolling window onto it and only the rows in the window get drawn.
   */
 public class TileMemCanvasController {
     private Canvas canvas;
+    private ScrollBar scrollBar;
     private PaletteCanvasController paletteCanvasController;
     private Button minusBtn;
     private Button plusBtn;
@@ -43,6 +48,15 @@ public class TileMemCanvasController {
     private int selectedTileRow = 0;
     private int selectedTileCol = 0;
 
+    private RenderScheduler.Target renderTarget;
+
+    private TileSheetRasterizer rasterizer = new TileSheetRasterizer(EditingData.TILES_PER_ROW);
+    private WritableImage sheetImage;
+    private int[] sheetPixels;
+
+    // while a file is being opened, we show what's been read of it instead of the current data
+    private OpenTask loading;
+
     public int getSelectedTileRow() {
         return selectedTileRow;
     }
@@ -53,26 +67,33 @@ public class TileMemCanvasController {
 
     public TileMemCanvasController(
         Canvas canvas,
+        ScrollBar scrollBar,
         PaletteCanvasController paletteCanvasController,
         Button minusBtn,
         Button plusBtn,
         ChoiceBox zoomSel
     ) {
         this.canvas = canvas;
+        this.scrollBar = scrollBar;
         this.paletteCanvasController = paletteCanvasController;
         this.minusBtn = minusBtn;
         this.plusBtn = plusBtn;
         this.zoomSel = zoomSel;
 
-        // set up loop to call draw periodically
-        Timeline timeline = new Timeline();
-        KeyFrame keyFrame = new KeyFrame(
-            javafx.util.Duration.millis(1000 / 60), // tick at 60 hz
-            event -> draw(event)
+        // redraw whenever the data or our view of it changes
+        renderTarget = RenderScheduler.getInstance().register(() -> draw());
+        zoomSel.getSelectionModel().selectedIndexProperty().addListener(
+            (observable, oldValue, newValue) -> renderTarget.markDirty()
+        );
+
+        // scroll bar value is how many canvas pixels down the sheet we are
+        scrollBar.setMin(0);
+        scrollBar.setValue(0);
+        scrollBar.setUnitIncrement(tileSizeInPx());
+        scrollBar.valueProperty().addListener(
+            (observable, oldValue, newValue) -> renderTarget.markDirty()
         );
-        timeline.getKeyFrames().setAll(keyFrame);
-        timeline.setCycleCount(Animation.INDEFINITE);
-        timeline.play();
+        canvas.addEventHandler(ScrollEvent.SCROLL, event -> handleScroll(event));
 
         minusBtn.setOnAction(event -> handleMinusBtn(event));
         plusBtn.setOnAction(event -> handlePlusBtn(event));
@@ -80,16 +101,37 @@ public class TileMemCanvasController {
         canvas.addEventHandler(MouseEvent.MOUSE_CLICKED, event -> handleMouseClick(event));
     }
 
+    // show the rows of tiles from task as they're read in, until it's done; null to go back to the current data
+    public void showLoading(OpenTask task) {
+        loading = task;
+        if(task != null) {
+            task.setOnPreview(renderTarget::markDirty);
+        }
+        renderTarget.markDirty();
+    }
+
+    private double tileSizeInPx() {
+        return canvas.getWidth() / EditingData.TILES_PER_ROW;
+    }
+
+    private void handleScroll(ScrollEvent e) {
+        double newValue = scrollBar.getValue() - e.getDeltaY();
+        scrollBar.setValue(Math.max(scrollBar.getMin(), Math.min(scrollBar.getMax(), newValue)));
+    }
+
     private void handleMouseClick(MouseEvent e) {
         double mouseX = e.getX();
-        double mouseY = e.getY();
+        double mouseY = e.getY() + scrollBar.getValue();
 
-        double tileSizeInPx = canvas.getWidth() / EditingData.TILES_PER_ROW;
+        double tileSizeInPx = tileSizeInPx();
         int tileX = (int) (mouseY / tileSizeInPx);
         int tileY = (int) (mouseX / tileSizeInPx);
 
         selectedTileRow = tileX;
         selectedTileCol = tileY;
+
+        // the tile character view shows whatever we've selected
+        RenderScheduler.getInstance().markAllDirty();
     }
 
     private void handleMinusBtn(ActionEvent e) {
@@ -110,85 +152,93 @@ public class TileMemCanvasController {
         return 128; // we always show tile mem 16x8
     }
 
-    private void draw(ActionEvent event) {
+    private void draw() {
         GraphicsContext gc = canvas.getGraphicsContext2D();
         gc.setLineWidth(2);
 
         EditingData ed = EditingData.getInstance();
-        if(ed != null) {
-            int bitDepth = ed.getBitDepth();
+        OpenTask.Preview preview = (loading != null) ? loading.getPreview() : null;
+        if(ed != null || preview != null) {
             int selectedPaletteIndex = paletteCanvasController.getSelectedPalette();
-            Palette palette= null;
-            try {
-                palette = ed.getPalette(selectedPaletteIndex);
-            } catch (Exception e) {
-                // use dummy palette if not available
-                palette = new Palette(bitDepth);
+            TileMemory tiles;
+            int tileRows;
+            int[] argbLut;
+            if(preview != null) {
+                tiles = preview.getTiles();
+                tileRows = preview.getTileRows();
+                argbLut = preview.getArgbTable(selectedPaletteIndex);
+            } else {
+                int bitDepth = ed.getBitDepth();
+                Palette palette= null;
+                try {
+                    palette = ed.getPalette(selectedPaletteIndex);
+                } catch (Exception e) {
+                    // use dummy palette if not available
+                    palette = new Palette(bitDepth);
+                }
+                tiles = ed.getTileMemory();
+                tileRows = ed.getTileRows();
+                argbLut = palette.getArgbTable();
             }
 
-            // just draw a big 'ol rect for the rest of the space that won't get filled with tiles
-            Color bgColor = palette.getColor(0);
-            gc.setStroke(bgColor);
-            gc.fillRect(0, 0, canvas.getHeight(), canvas.getWidth());
-
             double pixelSize = canvas.getWidth() / pixelsPerRow();
 
-            TileCHR currentTile = null;
+            int width = (int) canvas.getWidth();
+            int height = (int) canvas.getHeight();
+            double tileSize = TileCHR.TILE_DIM * pixelSize;
 
-            int maxPixelsX = ed.getTileRows() * TileCHR.TILE_DIM;
-            // draw pixels
-            for(int x = 0; x < maxPixelsX; ++x) {
-                for (int y = 0; y < pixelsPerRow(); ++y) {
-                    double rectX = y * pixelSize;
-                    double rectY = x * pixelSize;
-
-                    if(rectX > canvas.getWidth() || rectY > canvas.getHeight()) {
-                        // skip stuff that's 'off screen'
-                        break;
-                    }
-
-                    // when we get into the next tile load it up
-                    if(y % TileCHR.TILE_DIM == 0) {
-                        try {
-                            currentTile = ed.getTile(x / TileCHR.TILE_DIM, y / TileCHR.TILE_DIM);
-                        } catch(Exception e) {
-                            // ignore tiles we can't find
-                            currentTile = null;
-                        }
-                    }
-
-                    Color tileColor;
-                    if(currentTile != null) {
-                        int indexInTileX = x % TileCHR.TILE_DIM;
-                        int indexInTileY = y % TileCHR.TILE_DIM;
-                        int paletteIndex = currentTile.getColorSelected(indexInTileX, indexInTileY);
-                        tileColor = palette.getColor(paletteIndex);
-                    } else {
-                        tileColor = palette.getColor(0);
-                    }
-                    gc.setStroke(tileColor);
-                    gc.setFill(tileColor);
-                    gc.fillRect(rectX, rectY, pixelSize, pixelSize);
+            // let the scroll bar cover however many rows we've got now
+            double scrollMax = Math.max(0, (tileRows * tileSize) - height);
+            scrollBar.setMax(scrollMax);
+            scrollBar.setVisibleAmount(height);
+            if(scrollBar.getValue() > scrollMax) {
+                scrollBar.setValue(scrollMax);
+            }
+            double scrollY = scrollBar.getValue();
 
-                }
+            // draw pixels: rasterize the rows in view into our buffer, then put it up in one go
+            if(sheetImage == null || sheetImage.getWidth() != width || sheetImage.getHeight() != height) {
+                sheetImage = new WritableImage(width, height);
+                sheetPixels = new int[width * height];
             }
+            rasterizer.rasterize(tiles, tileRows, argbLut, pixelSize, scrollY, sheetPixels, width, height);
+            sheetImage.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), sheetPixels, 0, width);
+            gc.drawImage(sheetImage, 0, 0);
 
-            // draw tile grid
+            // draw tile grid, just for the rows in view
+            int firstVisibleRow = (int) (scrollY / tileSize);
+            int endVisibleRow = Math.min(tileRows, (int) Math.ceil((scrollY + height) / tileSize));
             gc.setStroke(Color.BROWN);
             for(int x = 0; x < EditingData.TILES_PER_ROW; ++x) {
-                for(int y = 0; y < ed.getTileRows(); ++y) {
+                for(int y = firstVisibleRow; y < endVisibleRow; ++y) {
                     double rectX = x * TileCHR.TILE_DIM * pixelSize;
-                    double rectY = y * TileCHR.TILE_DIM * pixelSize;
+                    double rectY = (y * TileCHR.TILE_DIM * pixelSize) - scrollY;
 
                     gc.strokeRect(rectX, rectY, TileCHR.TILE_DIM * pixelSize, TileCHR.TILE_DIM * pixelSize);
                 }
             }
 
+            // outline tiles that are copies of some other tile (maybe flipped) so they stand out
+            if(preview == null) {
+                TileDedupeIndex dedupe = tiles.getDedupeIndex();
+                gc.setStroke(Color.ORANGE);
+                for(int x = 0; x < EditingData.TILES_PER_ROW; ++x) {
+                    for(int y = firstVisibleRow; y < endVisibleRow; ++y) {
+                        if(dedupe.isDuplicate((y * EditingData.TILES_PER_ROW) + x)) {
+                            double rectX = x * TileCHR.TILE_DIM * pixelSize;
+                            double rectY = (y * TileCHR.TILE_DIM * pixelSize) - scrollY;
+
+                            gc.strokeRect(rectX, rectY, TileCHR.TILE_DIM * pixelSize, TileCHR.TILE_DIM * pixelSize);
+                        }
+                    }
+                }
+            }
+
             // draw selection window
             gc.setLineWidth(3);
             gc.setStroke(Color.WHITE);
 
-            double selectionXStart = selectedTileRow * TileCHR.TILE_DIM * pixelSize;
+            double selectionXStart = (selectedTileRow * TileCHR.TILE_DIM * pixelSize) - scrollY;
             double selectionYStart = selectedTileCol * TileCHR.TILE_DIM * pixelSize;
             int selectionSize = 0;
             int zoomSelection = zoomSel.getSelectionModel().getSelectedIndex();
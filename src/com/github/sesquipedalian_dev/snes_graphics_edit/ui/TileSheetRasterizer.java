@@ -0,0 +1,100 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.ui;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileCHR;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileMemory;
+
+/**
+ * TileSheetRasterizer
+ * Draws the whole tile memory as a sheet of tiles into an ARGB pixel buffer, scaled up to canvas pixels.  The
+ * buffer can then go to the screen in one shot through a PixelWriter instead of a canvas op per pixel.
+ */
+public class TileSheetRasterizer {
+    private final int tilesPerRow;
+    private final int sheetWidth;
+
+    // palette indices of the sheet row we decoded last
+    private final int[] rowIndices;
+
+    // which sheet column each canvas column falls in; rebuilt when the scale changes
+    private int[] columnMap = new int[0];
+    private double columnMapPixelSize = -1;
+
+    public TileSheetRasterizer(int tilesPerRow) {
+        this.tilesPerRow = tilesPerRow;
+        this.sheetWidth = tilesPerRow * TileCHR.TILE_DIM;
+        this.rowIndices = new int[sheetWidth];
+    }
+
+    // fill out (width x height canvas pixels, row major) with the tile sheet, each sheet pixel pixelSize
+    // canvas pixels across, starting scrollY canvas pixels down the sheet.  Only the sheet rows that land in
+    // the window get decoded.  argbLut maps palette index -> color; space not covered by tiles gets color 0.
+    public void rasterize(TileMemory tiles, int[] argbLut, double pixelSize, double scrollY, int[] out, int width, int height) {
+        rasterize(tiles, tiles.getTileRows(), argbLut, pixelSize, scrollY, out, width, height);
+    }
+
+    // same, but only showing the first tileRows rows of tiles
+    public void rasterize(TileMemory tiles, int tileRows, int[] argbLut, double pixelSize, double scrollY, int[] out, int width, int height) {
+        if(columnMap.length != width || columnMapPixelSize != pixelSize) {
+            columnMap = new int[width];
+            for(int cx = 0; cx < width; ++cx) {
+                columnMap[cx] = (int) (cx / pixelSize);
+            }
+            columnMapPixelSize = pixelSize;
+        }
+
+        byte[] planar = tiles.getData();
+        int bitDepth = tiles.getBitDepth();
+        int bytesPerTile = TileCHR.bytesPerTile(bitDepth);
+        int sheetHeight = tileRows * TileCHR.TILE_DIM;
+        int background = argbLut[0];
+
+        int lastSheetRow = -1;
+        for(int cy = 0; cy < height; ++cy) {
+            int rowStart = cy * width;
+            int sheetRow = (int) ((cy + scrollY) / pixelSize);
+
+            if(sheetRow >= sheetHeight) {
+                // past the last row of tiles
+                for(int cx = 0; cx < width; ++cx) {
+                    out[rowStart + cx] = background;
+                }
+                continue;
+            }
+
+            if(sheetRow == lastSheetRow) {
+                // scaled up rows repeat the canvas row above
+                System.arraycopy(out, rowStart - width, out, rowStart, width);
+                continue;
+            }
+
+            // decode the row of pixels crossing every tile in this tile row
+            int tileRow = sheetRow / TileCHR.TILE_DIM;
+            int x = sheetRow % TileCHR.TILE_DIM;
+            for(int tileCol = 0; tileCol < tilesPerRow; ++tileCol) {
+                int offset = ((tileRow * tilesPerRow) + tileCol) * bytesPerTile;
+                TileCHR.decodeRow(planar, offset, bitDepth, x, rowIndices, tileCol * TileCHR.TILE_DIM);
+            }
+
+            for(int cx = 0; cx < width; ++cx) {
+                int sheetCol = columnMap[cx];
+                out[rowStart + cx] = (sheetCol < sheetWidth) ? argbLut[rowIndices[sheetCol]] : background;
+            }
+            lastSheetRow = sheetRow;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.ui;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.Palette;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileCHR;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.Tilemap;
+
+/**
+ * TilemapRasterizer
+ * Draws a whole tilemap into an ARGB pixel buffer, one map pixel per buffer pixel.  Each cell's pixels come out
+ * of the shared TileImageCache, so only tile / palette / flip combinations that changed since last time get
+ * decoded, and the map is put together by copying those blocks into place a row at a time.
+ */
+public class TilemapRasterizer {
+    // out needs (map size * TILE_DIM) squared pixels
+    public void rasterize(Tilemap map, EditingData ed, int[] out) {
+        TileImageCache cache = TileImageCache.getInstance();
+
+        // 256 color backgrounds don't have palette bits; there's only the one palette
+        Palette[] palettes = new Palette[Tilemap.PALETTE_MASK + 1];
+        for(int p = 0; p < palettes.length; ++p) {
+            int actual = (ed.getBitDepth() == 8) ? 0 : p;
+            palettes[p] = (actual < ed.currentPalettes()) ? ed.getPalette(actual) : null;
+        }
+
+        int size = map.getSize();
+        int width = size * TileCHR.TILE_DIM;
+        for(int row = 0; row < size; ++row) {
+            for(int col = 0; col < size; ++col) {
+                int entry = map.getEntry(row, col);
+                int[] cell = cache.get(ed.getTileMemory(), Tilemap.tileOf(entry), palettes[Tilemap.paletteOf(entry)], entry, 1);
+                int start = (row * TileCHR.TILE_DIM * width) + (col * TileCHR.TILE_DIM);
+                for(int x = 0; x < TileCHR.TILE_DIM; ++x) {
+                    System.arraycopy(cell, x * TileCHR.TILE_DIM, out, start + (x * width), TileCHR.TILE_DIM);
+                }
+            }
+        }
+    }
+}
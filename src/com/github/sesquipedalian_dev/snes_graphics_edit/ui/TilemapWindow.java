@@ -0,0 +1,160 @@
+/**
+ * Copyright 2017 sesquipedalian.dev@gmail.com
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sesquipedalian_dev.snes_graphics_edit.ui;
+
+import com.github.sesquipedalian_dev.snes_graphics_edit.Main;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.EditingData;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.TileCHR;
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.Tilemap;
+import javafx.geometry.Orientation;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+
+/**
+ * TilemapWindow
+ * A window showing the current data's tilemap, scaled up 2x and scrolling.  The map is composed into one image
+ * only when the data changes (mostly out of cached tile images); scrolling just shows a different part of that
+ * image.
+ *
+ * Left click / drag places the tile selected in the tile memory view, using the selected palette (hold shift to
+ * flip it horizontally, alt to flip it vertically).  Right click / drag clears cells back to tile 0.
+ */
+public class TilemapWindow {
+    private static final int CANVAS_SIZE = 512;
+    private static final double SCALE = 2;
+
+    private final TileMemCanvasController tmcc;
+    private final PaletteCanvasController pcc;
+
+    private final Stage stage = new Stage();
+    private final Canvas canvas = new Canvas(CANVAS_SIZE, CANVAS_SIZE);
+    private final ScrollBar hScroll = new ScrollBar();
+    private final ScrollBar vScroll = new ScrollBar();
+
+    private final RenderScheduler.Target renderTarget;
+    private final TilemapRasterizer rasterizer = new TilemapRasterizer();
+    private WritableImage mapImage;
+    private int[] mapPixels;
+
+    // set from any thread when the data changes; the map image gets rebuilt on the next draw
+    private volatile boolean dataChanged = true;
+
+    public TilemapWindow(TileMemCanvasController tmcc, PaletteCanvasController pcc) {
+        this.tmcc = tmcc;
+        this.pcc = pcc;
+
+        renderTarget = RenderScheduler.getInstance().register(() -> draw());
+        EditingData.addChangeListener(() -> dataChanged = true);
+
+        vScroll.setOrientation(Orientation.VERTICAL);
+        for(ScrollBar bar : new ScrollBar[] {hScroll, vScroll}) {
+            bar.setMin(0);
+            bar.setUnitIncrement(TileCHR.TILE_DIM * SCALE);
+            bar.valueProperty().addListener((observable, oldValue, newValue) -> renderTarget.markDirty());
+        }
+
+        BorderPane root = new BorderPane();
+        root.setCenter(canvas);
+        root.setRight(vScroll);
+        root.setBottom(hScroll);
+        stage.setScene(new Scene(root));
+        stage.setTitle("Tilemap");
+        stage.initOwner(Main.theStage);
+
+        canvas.addEventHandler(MouseEvent.MOUSE_PRESSED, event -> handleMouse(event));
+        canvas.addEventHandler(MouseEvent.MOUSE_DRAGGED, event -> handleMouse(event));
+        canvas.addEventHandler(ScrollEvent.SCROLL, event -> {
+            vScroll.setValue(Math.max(vScroll.getMin(), Math.min(vScroll.getMax(), vScroll.getValue() - event.getDeltaY())));
+        });
+    }
+
+    public void show() {
+        stage.show();
+        stage.toFront();
+    }
+
+    private void handleMouse(MouseEvent e) {
+        EditingData ed = EditingData.getInstance();
+        Tilemap map = (ed != null) ? ed.getTilemap() : null;
+        if(map == null) {
+            return;
+        }
+
+        double cellSize = TileCHR.TILE_DIM * SCALE;
+        int row = (int) Math.floor((e.getY() + vScroll.getValue()) / cellSize);
+        int col = (int) Math.floor((e.getX() + hScroll.getValue()) / cellSize);
+        if(row < 0 || col < 0 || row >= map.getSize() || col >= map.getSize()) {
+            return;
+        }
+
+        if(e.getButton() == MouseButton.PRIMARY) {
+            int tile = (tmcc.getSelectedTileRow() * EditingData.TILES_PER_ROW) + tmcc.getSelectedTileCol();
+            map.setEntry(row, col, Tilemap.entry(tile, pcc.getSelectedPalette(), false, e.isShiftDown(), e.isAltDown()));
+        } else if(e.getButton() == MouseButton.SECONDARY) {
+            map.setEntry(row, col, 0);
+        }
+    }
+
+    private void draw() {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.setFill(Color.DARKGRAY);
+        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+
+        EditingData ed = EditingData.getInstance();
+        Tilemap map = (ed != null) ? ed.getTilemap() : null;
+        if(map == null) {
+            return;
+        }
+
+        // rebuild the map image if anything in it might look different
+        int mapSize = map.getSize() * TileCHR.TILE_DIM;
+        if(mapImage == null || (int) mapImage.getWidth() != mapSize) {
+            mapImage = new WritableImage(mapSize, mapSize);
+            mapPixels = new int[mapSize * mapSize];
+            dataChanged = true;
+        }
+        if(dataChanged) {
+            // clear before drawing, so a change mid-draw gets picked up next time
+            dataChanged = false;
+            rasterizer.rasterize(map, ed, mapPixels);
+            mapImage.getPixelWriter().setPixels(0, 0, mapSize, mapSize, PixelFormat.getIntArgbInstance(), mapPixels, 0, mapSize);
+        }
+
+        double scaledSize = mapSize * SCALE;
+        hScroll.setMax(Math.max(0, scaledSize - canvas.getWidth()));
+        hScroll.setVisibleAmount(canvas.getWidth());
+        vScroll.setMax(Math.max(0, scaledSize - canvas.getHeight()));
+        vScroll.setVisibleAmount(canvas.getHeight());
+
+        // show the part of the map image in view, scaled up without blurring
+        double sourceX = hScroll.getValue() / SCALE;
+        double sourceY = vScroll.getValue() / SCALE;
+        double sourceW = Math.min(mapSize - sourceX, canvas.getWidth() / SCALE);
+        double sourceH = Math.min(mapSize - sourceY, canvas.getHeight() / SCALE);
+        gc.setImageSmoothing(false);
+        gc.drawImage(mapImage, sourceX, sourceY, sourceW, sourceH, 0, 0, sourceW * SCALE, sourceH * SCALE);
+    }
+}
@@ -3,6 +3,7 @@
  */
 package com.github.sesquipedalian_dev.snes_graphics_edit.util;
 
+import com.github.sesquipedalian_dev.snes_graphics_edit.data.SnesColor;
 import javafx.scene.paint.Color;
 
 /**
@@ -11,21 +12,28 @@ import javafx.scene.paint.Color;
 public class Util {
     // takes Java repr of one component of an RGB color, and converts to the 5-bit needed for the SNES representation
     public static int javaToSnesColor(double java) {
-        int multi = (int) (java * 0x1F);
-        return multi & 0x1F; // truncate any remainders; make sure it takes up correct number of bits
+        // round rather than truncate, so a color read in from the SNES format comes back out the same
+        int multi = (int) Math.round(java * 0x1F);
+        return multi & 0x1F; // make sure it takes up correct number of bits
+    }
+
+    // pack a java color the way the SNES stores it: 0BBBBBGGGGGRRRRR
+    public static int javaToSnesColor(Color c) {
+        return SnesColor.pack(javaToSnesColor(c.getRed()), javaToSnesColor(c.getGreen()), javaToSnesColor(c.getBlue()));
     }
 
     // convert from SNES BGR 5-bit representations to java % RGB
     public static Color snesToJavaColor(int msb, int lsb) {
-        // extract the 5-bit color values from the bytes
-        int b5bit = (msb & 0x7C) >> 2;
-        int g5bit = ((msb & 0x3 ) << 3) | ((lsb & 0xE0) >> 5);
-        int r5bit = lsb & 0x1F;
+        return snesToJavaColor(SnesColor.fromBytes(msb, lsb));
+    }
 
+    // convert a packed SNES color to java % RGB.  Only for handing to JavaFX controls; renderers should use
+    // SnesColor.toArgb
+    public static Color snesToJavaColor(int color) {
         // convert to % values that java color uses
-        double bPercent = (float) b5bit / 0x1F;
-        double gPercent = (float) g5bit / 0x1F;
-        double rPercent = (float) r5bit / 0x1F;
+        double bPercent = (float) SnesColor.blue(color) / 0x1F;
+        double gPercent = (float) SnesColor.green(color) / 0x1F;
+        double rPercent = (float) SnesColor.red(color) / 0x1F;
 
         return new Color(rPercent, gPercent, bPercent, 1);
     }